@@ -10,10 +10,23 @@ git pull
 rm -rf doit
 rm -rf dist
 mkdir doit
-./gradlew build
+# The Java-11 layer is shared by any function, so on top of the JDK modules jdeps finds the runtime needs it links the
+# ones handlers commonly use, LAYER_MODULES. With HANDLER_ROOT set to an unzipped handler deployment it links only what
+# jdeps finds that handler and the runtime need instead.
+LAYER_MODULES=${LAYER_MODULES-java.sql,java.sql.rowset,java.rmi,java.logging}
+if [ -n "$HANDLER_ROOT" ]; then
+  ./gradlew build imageModules -PhandlerRoot="$HANDLER_ROOT"
+  LAYER_MODULES=""
+else
+  ./gradlew build imageModules
+fi
 #echo "OK"
+MODULES=$(cat ./build/jlink/modules.txt)${LAYER_MODULES:+,$LAYER_MODULES}
+# Started with -m the JVM only resolves the runtime's own modules, the image has to be told to resolve the others
+HANDLER_MODULES=$(echo "$MODULES" | tr ',' '\n' | grep -vx -e '' -e java.base -e java.management | sort -u | paste -sd, -)
 jlink --module-path ./build/libs:~/jdk-11.0.3/jmods \
-   --add-modules  com.ata.lambda,java.sql,java.sql.rowset,java.rmi,java.logging \
+   --add-modules  com.ata.lambda${MODULES:+,$MODULES} \
+   ${HANDLER_MODULES:+--add-options " --add-modules=$HANDLER_MODULES"} \
    --output ./dist \
    --launcher bootstrap=com.ata.lambda/com.ata.aws.lambda.LambdaBootstrap \
    --compress 2 --no-header-files --no-man-pages --strip-debug
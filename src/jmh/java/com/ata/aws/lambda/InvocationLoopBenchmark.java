@@ -0,0 +1,109 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.ByteBufferRequestHandler;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.ata.aws.lambda.tools.LocalRuntimeApi;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the runtime adds to every invocation: polling {@code /next} and reading the event, refreshing the
+ * context from its headers, dispatching to the handler and posting the response, against a {@link LocalRuntimeApi}
+ * on the loopback interface. Each step is the one the main loop of {@link LambdaBootstrap} runs.
+ *
+ * The handlers do as little as possible with the event, so the score is the runtime's overhead plus the local HTTP
+ * round trip. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Without TCP_NODELAY the JDK's HTTP server adds delayed ACK stalls to the small responses
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class InvocationLoopBenchmark {
+
+    // Event sizes from a small API Gateway request up to Lambda's 6 MB payload limit
+    @Param({"100", "10240", "1048576", "6291456"})
+    public int payloadSize;
+
+    @Param({"discard", "stream", "byteBuffer"})
+    public String handler;
+
+    private LocalRuntimeApi api;
+    private RuntimeApiClient client;
+    private InvocationContext context;
+    private Object requestHandler;
+    private byte[] event;
+
+    @Setup
+    public void setUp() throws Exception {
+        api = new LocalRuntimeApi();
+        client = new RuntimeApiClient(api.getAddress());
+        context = (InvocationContext) ContextFactory.createContext();
+        requestHandler = createHandler(handler);
+        event = createEvent(payloadSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        api.close();
+    }
+
+    @Benchmark
+    public LocalRuntimeApi.Result invocation() throws Exception {
+        CompletableFuture<LocalRuntimeApi.Result> result = api.invoke(event);
+
+        SimpleHttpResponse response = client.next();
+        context.update(response);
+
+        ResponseStream out = client.openResponse(context.getAwsRequestId());
+        LambdaBootstrap.invoke(requestHandler, response, out, context);
+        out.finish();
+
+        // The server has the whole response once the runtime got the acknowledgement, this doesn't block
+        return result.join();
+    }
+
+    private static Object createHandler(String name) {
+        switch (name) {
+            case "discard":
+                return (RequestStreamHandler) (in, out, context) -> out.write('1');
+            case "stream":
+                return (RequestStreamHandler) (in, out, context) -> in.transferTo(out);
+            case "byteBuffer":
+                return (ByteBufferRequestHandler) (in, out, context) -> {
+                    if (in.hasArray()) {
+                        out.write(in.array(), in.arrayOffset() + in.position(), in.remaining());
+                    }
+                    else {
+                        byte[] chunk = new byte[8192];
+                        ByteBuffer source = in.duplicate();
+                        while (source.hasRemaining()) {
+                            int length = Math.min(chunk.length, source.remaining());
+                            source.get(chunk, 0, length);
+                            out.write(chunk, 0, length);
+                        }
+                    }
+                };
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    private static byte[] createEvent(int size) {
+        byte[] prefix = "{\"data\":\"".getBytes(StandardCharsets.US_ASCII);
+        byte[] event = new byte[Math.max(size, prefix.length + 2)];
+        Arrays.fill(event, (byte) 'x');
+        System.arraycopy(prefix, 0, event, 0, prefix.length);
+        event[event.length - 2] = '"';
+        event[event.length - 1] = '}';
+        return event;
+    }
+}
@@ -0,0 +1,27 @@
+package com.amazonaws.services.lambda.runtime;
+
+/**
+ * Handles the records of SQS, Kinesis and DynamoDB Streams batches one at a time. The runtime splits the batch into
+ * its records and hands them to the handler in parallel, keeping the records of an SQS FIFO message group in order.
+ * The records of a Kinesis or DynamoDB stream batch are handled in order, one at a time, unless
+ * {@code LAMBDA_RUNTIME_BATCH_STREAM_ORDERING=key} only keeps those with the same partition key or item key in order.
+ *
+ * Records the handler throws for are reported back as {@code batchItemFailures}, so only they are retried. For that
+ * the event source mapping needs {@code ReportBatchItemFailures} turned on, otherwise Lambda treats the batch as
+ * processed.
+ *
+ * The context is the invocation's, shared by the threads handling its records, and can be read from all of them.
+ * Like the event it's only valid until the batch is handled, records must not hand it to threads of their own that
+ * outlive it.
+ *
+ * @param <R> The record type, bound from the JSON of a single record
+ */
+public interface BatchRecordHandler<R> {
+    /**
+     * Handles one record of the batch. Called from several threads at once, for different records.
+     * @param record The record
+     * @param context The Lambda execution environment context object, shared by all records of the batch
+     * @throws Exception if the record couldn't be processed and has to be retried
+     */
+    public void handleRecord(R record, Context context) throws Exception;
+}
@@ -0,0 +1,21 @@
+package com.amazonaws.services.lambda.runtime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Low-level request-handling interface which receives the event body as a read-only view of the buffer the runtime
+ * read it into, without any copying. The buffer is reused for later events, so it must not be retained after the
+ * handler returns.
+ */
+public interface ByteBufferRequestHandler {
+    /**
+     * Handles a Lambda Function request
+     * @param input The Lambda Function input, positioned at the start of the event body
+     * @param output The Lambda function output stream
+     * @param context The Lambda execution environment context object.
+     * @throws IOException
+     */
+    public void handleRequest(ByteBuffer input, OutputStream output, Context context) throws IOException;
+}
@@ -0,0 +1,12 @@
+package com.amazonaws.services.lambda.runtime;
+
+/**
+ * A {@link Context} which also gives access to the runtime's {@link WarmCache}. The contexts handed to handlers by
+ * this runtime implement it, handlers which may also run on other runtimes check for it before casting.
+ */
+public interface CachingContext extends Context {
+    /**
+     * Returns the cache kept for the lifetime of the execution environment, shared by all invocations.
+     */
+    public WarmCache getCache();
+}
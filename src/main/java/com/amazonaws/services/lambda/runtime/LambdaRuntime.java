@@ -22,6 +22,10 @@ public final class LambdaRuntime {
         }
     };
 
+    static void setLogger(LambdaLogger lambdaLogger) {
+        logger = lambdaLogger;
+    }
+
     /**
      * Returns the global lambda logger instance
      *
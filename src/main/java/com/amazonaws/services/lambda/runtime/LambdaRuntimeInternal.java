@@ -2,6 +2,8 @@
 
 package com.amazonaws.services.lambda.runtime;
 
+import java.util.List;
+
 /**
  * This class is used internally by Lambda Runtime.
  */
@@ -17,4 +19,25 @@ public final class LambdaRuntimeInternal {
     public static boolean getUseLog4jAppender() {
         return useLog4jAppender;
     }
+
+    /**
+     * Replaces the logger returned by {@link LambdaRuntime#getLogger()}.
+     */
+    public static void setLogger(LambdaLogger logger) {
+        LambdaRuntime.setLogger(logger);
+    }
+
+    /**
+     * The hooks registered through {@link RuntimeHooks#beforeCheckpoint}, in the order they are to be run.
+     */
+    public static List<RuntimeHooks.Hook> getBeforeCheckpointHooks() {
+        return RuntimeHooks.getBeforeCheckpoint();
+    }
+
+    /**
+     * The hooks registered through {@link RuntimeHooks#afterRestore}, in the order they are to be run.
+     */
+    public static List<RuntimeHooks.Hook> getAfterRestoreHooks() {
+        return RuntimeHooks.getAfterRestore();
+    }
 }
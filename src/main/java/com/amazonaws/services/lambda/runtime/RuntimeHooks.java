@@ -0,0 +1,54 @@
+package com.amazonaws.services.lambda.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lifecycle hooks around a checkpoint of the initialized runtime, for JVMs which can checkpoint and restore
+ * themselves. Handlers register them from their constructor: anything that can't survive being restored in another
+ * environment, like open connections, cached credentials or seeded random generators, is closed or dropped before
+ * the checkpoint and re-created after the restore.
+ *
+ * Hooks run before the checkpoint in the reverse order of their registration, and after the restore in the order of
+ * their registration. Without a checkpoint, neither is ever run.
+ */
+public final class RuntimeHooks {
+    private RuntimeHooks() {}
+
+    /**
+     * A hook, which may throw to report it failed.
+     */
+    @FunctionalInterface
+    public interface Hook {
+        void run() throws Exception;
+    }
+
+    private static final List<Hook> beforeCheckpoint = new ArrayList<>();
+    private static final List<Hook> afterRestore = new ArrayList<>();
+
+    /**
+     * Registers a hook run before the checkpoint is taken. If it throws the runtime doesn't take the checkpoint.
+     */
+    public static synchronized void beforeCheckpoint(Hook hook) {
+        beforeCheckpoint.add(hook);
+    }
+
+    /**
+     * Registers a hook run once the runtime is restored, before the first event is requested. Also run if the
+     * checkpoint couldn't be taken, so whatever was closed before it is re-opened.
+     */
+    public static synchronized void afterRestore(Hook hook) {
+        afterRestore.add(hook);
+    }
+
+    static synchronized List<Hook> getBeforeCheckpoint() {
+        List<Hook> hooks = new ArrayList<>(beforeCheckpoint);
+        Collections.reverse(hooks);
+        return hooks;
+    }
+
+    static synchronized List<Hook> getAfterRestore() {
+        return new ArrayList<>(afterRestore);
+    }
+}
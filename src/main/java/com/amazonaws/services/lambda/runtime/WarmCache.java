@@ -0,0 +1,72 @@
+package com.amazonaws.services.lambda.runtime;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+/**
+ * A bounded cache for state kept warm between invocations, like configuration, tokens and lookups. Its budget is a
+ * share of the function's memory, once it's used up the least recently used entries are evicted. Entries may expire
+ * after a time to live, a null TTL keeps them until they're evicted.
+ *
+ * Entries are weighed in bytes. Strings, byte arrays and buffers are weighed by their size, other values count as a
+ * small fixed size unless their weight is given. Large byte values can be kept off the heap with
+ * {@link #putBytes(String, byte[], Duration)}, if the runtime is configured with an off-heap budget.
+ *
+ * All methods are thread safe.
+ */
+public interface WarmCache {
+
+    /**
+     * Loads the value of a key that isn't cached.
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load(String key) throws Exception;
+    }
+
+    /**
+     * Returns the value of the key, or null if it isn't cached or has expired. Bytes cached with
+     * {@link #putBytes(String, byte[], Duration)} come back as a read-only buffer.
+     */
+    public <V> V get(String key);
+
+    /**
+     * Returns the value of the key, loading and caching it if it isn't cached. Only one caller loads a key at a time,
+     * callers asking for the same key meanwhile wait for its value, or get the exception it failed with.
+     * Null values aren't cached.
+     * @throws IllegalStateException if the loader asks for the key it's loading
+     */
+    public <V> V get(String key, Duration ttl, Loader<V> loader) throws Exception;
+
+    public void put(String key, Object value, Duration ttl);
+
+    /**
+     * Caches a value whose size in bytes the runtime can't tell, like a parsed document.
+     */
+    public void put(String key, Object value, long weightBytes, Duration ttl);
+
+    /**
+     * Caches a copy of the bytes, off the heap if they're large and the runtime has an off-heap budget.
+     */
+    public void putBytes(String key, byte[] value, Duration ttl);
+
+    /**
+     * Returns a read-only view of bytes cached with {@link #putBytes(String, byte[], Duration)}, or null if they
+     * aren't cached or have expired.
+     */
+    public ByteBuffer getBytes(String key);
+
+    public void invalidate(String key);
+
+    public void invalidateAll();
+
+    /**
+     * The bytes of the heap budget in use.
+     */
+    public long getWeightBytes();
+
+    /**
+     * The heap budget in bytes.
+     */
+    public long getBudgetBytes();
+}
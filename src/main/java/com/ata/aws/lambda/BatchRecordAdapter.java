@@ -0,0 +1,270 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.BatchRecordHandler;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a {@link BatchRecordHandler} as a {@link RequestStreamHandler}. The records of the event are grouped by what
+ * their source keeps in order: the message group of SQS FIFO queues, while messages of standard queues are each a
+ * group of their own, and for Kinesis and DynamoDB streams the whole batch, which comes from a single shard. Each
+ * group is handled on its own thread, up to {@code LAMBDA_RUNTIME_BATCH_PARALLELISM} at a time.
+ *
+ * Once a record of a group fails the rest of the group is skipped. For SQS the skipped messages are reported as
+ * failures too, so they're retried after the failed one. Streams are retried from the lowest failed sequence number,
+ * which comes before anything skipped, so only the failures are reported there.
+ *
+ * {@code LAMBDA_RUNTIME_BATCH_STREAM_ORDERING=key} groups stream records by Kinesis partition key and DynamoDB item
+ * instead, as the event source mappings do with a parallelization factor. Records of other keys then keep going past
+ * a failure, and as the stream is checkpointed at the lowest failed sequence number the ones after it are handled
+ * again on the retry, so their side effects have to be idempotent.
+ */
+final class BatchRecordAdapter implements RequestStreamHandler {
+
+    private static final int DEFAULT_PARALLELISM = 16;
+
+    private final BatchRecordHandler<Object> handler;
+    private final JsonBinder<Object> binder;
+    private final boolean bindsTree;
+    private final boolean orderStreamsByKey;
+    private final ExecutorService executor;
+    private final ThreadLocal<JsonWriter> writers = ThreadLocal.withInitial(() -> new JsonWriter(null));
+
+    @SuppressWarnings("unchecked")
+    BatchRecordAdapter(BatchRecordHandler<?> handler) {
+        this.handler = (BatchRecordHandler<Object>) handler;
+        Type recordType = JsonBinder.resolveTypeArguments(handler.getClass(), BatchRecordHandler.class)[0];
+        // Records are read as trees to find their source's ids and keys, those are handed over as they are
+        this.bindsTree = JsonBinder.rawType(recordType) == Object.class || recordType == Map.class
+                || JsonBinder.rawType(recordType) == Map.class && JsonBinder.rawType(((ParameterizedType) recordType).getActualTypeArguments()[1]) == Object.class;
+        this.binder = JsonBinder.of(recordType);
+        this.orderStreamsByKey = "key".equals(System.getenv("LAMBDA_RUNTIME_BATCH_STREAM_ORDERING"));
+
+        String parallelism = System.getenv("LAMBDA_RUNTIME_BATCH_PARALLELISM");
+        this.executor = Executors.newFixedThreadPool(parallelism == null ? DEFAULT_PARALLELISM : Math.max(1, Integer.parseInt(parallelism.trim())),
+                LambdaBootstrap.workerThreads("lambda-record-"));
+    }
+
+    @Override
+    public void handleRequest(InputStream in, OutputStream out, Context context) throws IOException {
+        Map<String, List<BatchRecord>> groups = readGroups(in);
+
+        List<GroupTask> tasks = new ArrayList<>(groups.size());
+        List<Future<List<String>>> results = new ArrayList<>(groups.size());
+        for (List<BatchRecord> group : groups.values()) {
+            GroupTask task = new GroupTask(group, context);
+            tasks.add(task);
+            results.add(executor.submit(task));
+        }
+
+        List<String> failures = new ArrayList<>();
+        try {
+            for (Future<List<String>> result : results) {
+                failures.addAll(result.get());
+            }
+        }
+        catch (InterruptedException e) {
+            // Timed out, the records still running are interrupted as well
+            stop(tasks, results);
+            throw new InterruptedIOException("Interrupted while handling the batch");
+        }
+        catch (ExecutionException e) {
+            // The context is refreshed for the next event once this returns, none of the records may still use it
+            stop(tasks, results);
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Batch failed", cause);
+        }
+
+        JsonWriter writer = writers.get().reset(out);
+        writer.beginObject().name("batchItemFailures").beginArray();
+        for (String failure : failures) {
+            writer.beginObject().name("itemIdentifier").value(failure).endObject();
+        }
+        writer.endArray().endObject();
+        writer.flush();
+    }
+
+    /**
+     * Interrupts the groups still running and waits for them to return, the groups that haven't started never will.
+     */
+    private static void stop(List<GroupTask> tasks, List<Future<List<String>>> results) {
+        for (Future<List<String>> result : results) {
+            result.cancel(true);
+        }
+        boolean interrupted = Thread.interrupted();
+        for (GroupTask task : tasks) {
+            interrupted |= task.stop();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A group handled on an executor thread. Cancelling its future doesn't wait for it, so it keeps track of whether
+     * it started and when it's done itself.
+     */
+    private final class GroupTask implements Callable<List<String>> {
+
+        private final List<BatchRecord> group;
+        private final Context context;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private GroupTask(List<BatchRecord> group, Context context) {
+            this.group = group;
+            this.context = context;
+        }
+
+        @Override
+        public List<String> call() throws IOException {
+            if (!started.compareAndSet(false, true)) {
+                return Collections.emptyList();
+            }
+            try {
+                return handleGroup(group, context);
+            }
+            finally {
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Keeps the group from starting or waits for it to finish, returns whether the wait was interrupted.
+         */
+        private boolean stop() {
+            if (started.compareAndSet(false, true)) {
+                return false;
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    return interrupted;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+    }
+
+    private List<String> handleGroup(List<BatchRecord> group, Context context) throws IOException {
+        List<String> failures = new ArrayList<>(0);
+        for (int i = 0; i < group.size(); i++) {
+            BatchRecord record = group.get(i);
+            try {
+                handler.handleRecord(record.value, context);
+            }
+            catch (Exception e) {
+                RingBufferLogger.getInstance().log("Record " + record.itemIdentifier + " failed: " + e);
+                if (record.itemIdentifier == null) {
+                    // Without an id the failure can't be reported on its own, so the whole batch has to be retried
+                    throw new IOException("Record of an unknown event source failed", e);
+                }
+                failures.add(record.itemIdentifier);
+
+                if (record.sqs) {
+                    for (int j = i + 1; j < group.size(); j++) {
+                        failures.add(group.get(j).itemIdentifier);
+                    }
+                }
+                break;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Reads the records of the event and groups them by their ordering key, in the order they appear.
+     */
+    private Map<String, List<BatchRecord>> readGroups(InputStream in) throws IOException {
+        Map<String, List<BatchRecord>> groups = new LinkedHashMap<>();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("Records")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            for (int index = 0; reader.hasNext(); index++) {
+                Object tree = reader.readValue();
+                if (!(tree instanceof Map)) {
+                    throw new IOException("Malformed JSON: record " + index + " isn't an object");
+                }
+                BatchRecord record = describe((Map<?, ?>) tree);
+                record.value = bindsTree ? tree : binder.fromTree(tree);
+
+                String key = record.orderingKey == null ? "#" + index : record.orderingKey;
+                groups.computeIfAbsent(key, k -> new ArrayList<>(1)).add(record);
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return groups;
+    }
+
+    private BatchRecord describe(Map<?, ?> record) {
+        BatchRecord described = new BatchRecord();
+        Object source = record.containsKey("eventSource") ? record.get("eventSource") : record.get("EventSource");
+
+        if ("aws:sqs".equals(source)) {
+            described.sqs = true;
+            described.itemIdentifier = string(record.get("messageId"));
+            Object attributes = record.get("attributes");
+            if (attributes instanceof Map) {
+                String group = string(((Map<?, ?>) attributes).get("MessageGroupId"));
+                described.orderingKey = group == null ? null : "sqs:" + group;
+            }
+        }
+        else if ("aws:kinesis".equals(source) && record.get("kinesis") instanceof Map) {
+            Map<?, ?> kinesis = (Map<?, ?>) record.get("kinesis");
+            described.itemIdentifier = string(kinesis.get("sequenceNumber"));
+            described.orderingKey = orderStreamsByKey ? "kinesis:" + kinesis.get("partitionKey") : "stream";
+        }
+        else if ("aws:dynamodb".equals(source) && record.get("dynamodb") instanceof Map) {
+            Map<?, ?> dynamodb = (Map<?, ?>) record.get("dynamodb");
+            described.itemIdentifier = string(dynamodb.get("SequenceNumber"));
+            // Keys is an attribute map, equal maps print the same so its string form identifies the item
+            described.orderingKey = orderStreamsByKey ? "dynamodb:" + dynamodb.get("Keys") : "stream";
+        }
+        return described;
+    }
+
+    private static String string(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static final class BatchRecord {
+        private Object value;
+        private String itemIdentifier;
+        private String orderingKey;
+        private boolean sqs;
+    }
+}
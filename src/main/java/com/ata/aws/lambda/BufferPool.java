@@ -0,0 +1,113 @@
+package com.ata.aws.lambda;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of off-heap buffers the Runtime API client reads event bodies into. Buffers come in power of two size
+ * classes and the bytes kept across all of them are bounded by a budget derived from the function's memory limit, so
+ * a 128 MB function doesn't hold on to the same amount of native memory as a 10 GB one. Released buffers that don't
+ * fit the budget anymore are left to the GC.
+ */
+final class BufferPool {
+
+    private static final int MIN_CLASS_SHIFT = 16;   // 64 KB
+    private static final int MAX_CLASS_SHIFT = 23;   // 8 MB, enough for the 6 MB synchronous payload limit
+    private static final int MAX_PER_CLASS = 4;
+
+    private static final class Holder {
+        static final BufferPool SHARED = forMemoryLimit(memoryLimitFromEnv());
+    }
+
+    private final ByteBuffer[][] free = new ByteBuffer[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1][];
+    private final int[] freeCount = new int[free.length];
+    private final long budgetBytes;
+    // Capacity of the buffers kept in all size classes
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private BufferPool(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        for (int i = 0; i < free.length; i++) {
+            long classSize = 1L << (MIN_CLASS_SHIFT + i);
+            free[i] = new ByteBuffer[(int) Math.max(1, Math.min(MAX_PER_CLASS, budgetBytes / classSize))];
+        }
+    }
+
+    /**
+     * The pool shared by everything in this runtime, sized from {@code AWS_LAMBDA_FUNCTION_MEMORY_SIZE}.
+     */
+    static BufferPool shared() {
+        return Holder.SHARED;
+    }
+
+    /**
+     * Retains at most a sixteenth of the function's memory, but never less than 1 MB or more than 64 MB.
+     */
+    static BufferPool forMemoryLimit(int memoryMb) {
+        long budget = Math.max(1L << 20, Math.min(64L << 20, ((long) memoryMb << 20) / 16));
+        return new BufferPool(budget);
+    }
+
+    static int memoryLimitFromEnv() {
+        String memory = System.getenv("AWS_LAMBDA_FUNCTION_MEMORY_SIZE");
+        try {
+            return memory == null ? 128 : Integer.parseInt(memory.trim());
+        }
+        catch (NumberFormatException e) {
+            return 128;
+        }
+    }
+
+    /**
+     * Returns a direct buffer with position 0 and its limit set to the requested capacity.
+     */
+    ByteBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0) {
+            // Bigger than anything we pool, let the GC take care of it once it's released
+            return ByteBuffer.allocateDirect(capacity);
+        }
+
+        ByteBuffer buffer = null;
+        synchronized (free[sizeClass]) {
+            if (freeCount[sizeClass] > 0) {
+                buffer = free[sizeClass][--freeCount[sizeClass]];
+                free[sizeClass][freeCount[sizeClass]] = null;
+            }
+        }
+        if (buffer != null) {
+            retainedBytes.addAndGet(-buffer.capacity());
+        }
+        else {
+            buffer = ByteBuffer.allocateDirect(1 << (MIN_CLASS_SHIFT + sizeClass));
+        }
+
+        buffer.clear().limit(capacity);
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        int sizeClass = Integer.numberOfTrailingZeros(buffer.capacity()) - MIN_CLASS_SHIFT;
+        if (!buffer.isDirect() || Integer.bitCount(buffer.capacity()) != 1 || sizeClass < 0 || sizeClass >= free.length) {
+            return;
+        }
+
+        // Reserve its bytes first, so buffers released to different size classes at once can't overshoot the budget
+        if (retainedBytes.addAndGet(buffer.capacity()) > budgetBytes) {
+            retainedBytes.addAndGet(-buffer.capacity());
+            return;
+        }
+        synchronized (free[sizeClass]) {
+            if (freeCount[sizeClass] < free[sizeClass].length) {
+                free[sizeClass][freeCount[sizeClass]++] = buffer;
+                return;
+            }
+        }
+        retainedBytes.addAndGet(-buffer.capacity());
+    }
+
+    private static int sizeClass(int capacity) {
+        int shift = Math.max(MIN_CLASS_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, capacity - 1)));
+        return shift > MAX_CLASS_SHIFT ? -1 : shift - MIN_CLASS_SHIFT;
+    }
+}
@@ -0,0 +1,86 @@
+package com.ata.aws.lambda;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} reading straight out of a {@link ByteBuffer}, so an event body that was read into a pooled
+ * buffer doesn't need to be copied again to be handed to a stream handler.
+ */
+final class ByteBufferInputStream extends InputStream {
+
+    private ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Points the stream at the body of the next event.
+     */
+    void setBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    /**
+     * Copies the rest of the buffer into a response stream without the transfer buffer {@link InputStream} would
+     * allocate, which makes echoing the event as cheap as it gets.
+     */
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        if (!(out instanceof ResponseStream)) {
+            return super.transferTo(out);
+        }
+        int n = buffer.remaining();
+        ((ResponseStream) out).write(buffer);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        buffer.mark();
+    }
+
+    @Override
+    public synchronized void reset() {
+        buffer.reset();
+    }
+}
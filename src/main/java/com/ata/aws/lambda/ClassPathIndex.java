@@ -0,0 +1,123 @@
+package com.ata.aws.lambda;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The package index of {@link HandlerClassLoader}, precomputed at deploy time so the runtime doesn't have to read
+ * the central directory of every jar on startup. It's written into the task root by running this class:
+ *
+ * <pre>java -m com.ata.lambda/com.ata.aws.lambda.ClassPathIndex &lt;task root&gt;</pre>
+ *
+ * The file lists each class path element, relative to the task root and with its size and a checksum of its central
+ * directory, followed by its packages. An index that doesn't match the class path it's loaded for, ie. because a jar
+ * was added or rebuilt since, is ignored. The checksum covers the CRC of every entry, so a rebuilt jar is noticed even
+ * if its size and modification time didn't change, without parsing its directory. Only the packages of jars are taken
+ * from the index: a directory, like the task root itself, has nothing to tell whether it changed, and listing its
+ * packages is cheap, so directories are always scanned.
+ */
+final class ClassPathIndex {
+
+    static final String FILE_NAME = "lambda-classpath.idx";
+
+    private static final String HEADER = "lambda-classpath-index 1";
+    private static final String ELEMENT = "@";
+
+    private ClassPathIndex() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ClassPathIndex <task root>");
+            System.exit(1);
+        }
+
+        File taskRoot = new File(args[0]).getAbsoluteFile();
+        File indexFile = new File(taskRoot, FILE_NAME);
+        Files.deleteIfExists(indexFile.toPath());
+
+        List<HandlerClassLoader.Element> elements = HandlerClassLoader.create(taskRoot, null).getElements();
+        write(indexFile, taskRoot, elements, HandlerClassLoader.scan(elements));
+        System.out.println("Wrote " + indexFile + " for " + elements.size() + " class path elements");
+    }
+
+    static void write(File indexFile, File taskRoot, List<HandlerClassLoader.Element> elements,
+                      Map<String, List<HandlerClassLoader.Element>> index) throws IOException {
+        try (Writer out = Files.newBufferedWriter(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.write('\n');
+            for (HandlerClassLoader.Element element : elements) {
+                out.write(ELEMENT + describe(taskRoot, element) + '\n');
+                if (element.file().isDirectory()) {
+                    continue;
+                }
+
+                TreeSet<String> packages = new TreeSet<>();
+                for (Map.Entry<String, List<HandlerClassLoader.Element>> entry : index.entrySet()) {
+                    if (entry.getValue().contains(element)) {
+                        packages.add(entry.getKey());
+                    }
+                }
+                for (String name : packages) {
+                    out.write(name);
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the index for the given class path elements, or returns null if it was written for a different one. The
+     * packages of directories are scanned in their place on the class path.
+     */
+    static Map<String, List<HandlerClassLoader.Element>> read(File indexFile, File taskRoot, List<HandlerClassLoader.Element> elements) throws IOException {
+        Map<String, List<HandlerClassLoader.Element>> index = new HashMap<>();
+
+        try (BufferedReader in = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(in.readLine())) {
+                return null;
+            }
+
+            int next = 0;
+            HandlerClassLoader.Element current = null;
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith(ELEMENT)) {
+                    if (next == elements.size()) {
+                        return null;
+                    }
+                    current = elements.get(next++);
+                    if (!line.substring(ELEMENT.length()).equals(describe(taskRoot, current))) {
+                        return null;
+                    }
+                    if (current.file().isDirectory()) {
+                        HandlerClassLoader.scan(Collections.singletonList(current)).forEach(
+                                (name, found) -> index.computeIfAbsent(name, k -> new ArrayList<>(1)).addAll(found));
+                    }
+                }
+                else if (current != null && !current.file().isDirectory()) {
+                    index.computeIfAbsent(line, k -> new ArrayList<>(1)).add(current);
+                }
+            }
+            return next == elements.size() ? index : null;
+        }
+    }
+
+    private static String describe(File taskRoot, HandlerClassLoader.Element element) throws IOException {
+        File file = element.file();
+        String path = taskRoot.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+        if (file.isDirectory()) {
+            return path.isEmpty() ? "." : path;
+        }
+        return path + ' ' + file.length() + ' ' + Long.toHexString(MappedZip.checksum(file));
+    }
+}
@@ -0,0 +1,78 @@
+package com.ata.aws.lambda;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the handler's classes on background threads during init, while the main thread is still constructing the
+ * handler and polling for the first event. The classes come from a preload list in the task root, which a training
+ * run records from the classes {@link HandlerClassLoader} defined, in the order it defined them.
+ *
+ * Classes are loaded and linked but not initialized, so static initializers still run on first use, on the thread
+ * that uses the class, exactly as without preloading.
+ */
+final class ClassPreloader {
+
+    static final String FILE_NAME = "lambda-preload.lst";
+
+    private ClassPreloader() {
+    }
+
+    /**
+     * Starts the loader threads if the task root has a preload list. The threads are daemons and just stop once the
+     * list is worked through.
+     */
+    static void start(HandlerClassLoader loader, File taskRoot, int threads) throws IOException {
+        File list = new File(taskRoot, FILE_NAME);
+        if (threads <= 0 || !list.isFile()) {
+            return;
+        }
+
+        List<String> classes = Files.readAllLines(list.toPath(), StandardCharsets.UTF_8);
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            // The threads take the classes in the recorded order, so those needed first are loaded first
+            for (int i = next.getAndIncrement(); i < classes.size(); i = next.getAndIncrement()) {
+                preload(loader, classes.get(i));
+            }
+        };
+
+        for (int i = 0; i < Math.min(threads, classes.size()); i++) {
+            Thread thread = new Thread(worker, "lambda-preload-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static void preload(HandlerClassLoader loader, String name) {
+        if (name.isEmpty()) {
+            return;
+        }
+        try {
+            Class<?> type = Class.forName(name, false, loader);
+
+            // There's no API to link a class without initializing it, but HotSpot links it before reflecting on it
+            type.getDeclaredConstructors();
+        }
+        catch (ClassNotFoundException | LinkageError | RuntimeException e) {
+            // The deployment changed since the list was recorded, the class fails again when it's actually used
+        }
+    }
+
+    /**
+     * Writes the classes recorded by the loader into the preload list of the task root.
+     */
+    static void write(File taskRoot, List<String> classes) throws IOException {
+        try (Writer out = Files.newBufferedWriter(new File(taskRoot, FILE_NAME).toPath(), StandardCharsets.UTF_8)) {
+            for (String name : classes) {
+                out.write(name);
+                out.write('\n');
+            }
+        }
+    }
+}
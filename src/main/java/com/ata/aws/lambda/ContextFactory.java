@@ -2,7 +2,6 @@ package com.ata.aws.lambda;
 
 import com.amazonaws.services.lambda.runtime.*;
 
-import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -14,56 +13,30 @@ import java.util.Objects;
  */
 public class ContextFactory {
 
-    private static LambdaLogger logger = new LambdaLogger() {
-        @Override
-        public void log(String message) {
-            System.out.println(message);
-        }
+    private static LambdaLogger logger = RingBufferLogger.getInstance();
 
-        @Override
-        public void log(byte[] message) {
-            System.out.println(new String(message));
-        }
-    };
+    private static volatile FunctionEnvironment environment = new FunctionEnvironment();
 
+    /**
+     * Creates a context populated from the environment. The runtime refreshes it from the headers of every event.
+     */
     public static Context createContext() {
-        return new ContextImpl(
-                null,
-                System.getenv("AWS_LAMBDA_LOG_GROUP_NAME"),
-                System.getenv("AWS_LAMBDA_LOG_STREAM_NAME"),
-                System.getenv("AWS_LAMBDA_FUNCTION_NAME"),
-                System.getenv("AWS_LAMBDA_FUNCTION_VERSION"),
-                "arn",
-                new CognitoIdentity() {
-                    @Override
-                    public String getIdentityId() {
-                        return null;
-                    }
-
-                    @Override
-                    public String getIdentityPoolId() {
-                        return null;
-                    }
-                },
-                new ClientContext() {
-                    @Override
-                    public Client getClient() {
-                        return null;
-                    }
-
-                    @Override
-                    public Map<String, String> getCustom() {
-                        return null;
-                    }
-
-                    @Override
-                    public Map<String, String> getEnvironment() {
-                        return null;
-                    }
-                }, 0
-                , 0
-                , logger
-        );
+        return new InvocationContext(logger);
+    }
+
+    /**
+     * The function's settings from the environment, shared by all contexts.
+     */
+    static FunctionEnvironment environment() {
+        return environment;
+    }
+
+    /**
+     * Reads the function's settings from the environment again, once the runtime was restored from a checkpoint
+     * taken in another environment.
+     */
+    static void refreshEnvironment() {
+        environment = new FunctionEnvironment();
     }
 
     public Context cloneWith(Context context, String requestId) {
@@ -82,7 +55,15 @@ public class ContextFactory {
         );
     }
 
-    private static class ContextImpl implements Context {
+    static final class FunctionEnvironment {
+        final String logGroupName = System.getenv("AWS_LAMBDA_LOG_GROUP_NAME");
+        final String logStreamName = System.getenv("AWS_LAMBDA_LOG_STREAM_NAME");
+        final String functionName = System.getenv("AWS_LAMBDA_FUNCTION_NAME");
+        final String functionVersion = System.getenv("AWS_LAMBDA_FUNCTION_VERSION");
+        final int memoryLimitInMb = BufferPool.memoryLimitFromEnv();
+    }
+
+    private static class ContextImpl implements CachingContext {
 
         private final String requestId;
         private final String logGroupName;
@@ -150,6 +131,11 @@ public class ContextFactory {
             return clientContext;
         }
 
+        @Override
+        public WarmCache getCache() {
+            return WarmStateCache.shared();
+        }
+
         @Override
         public int getRemainingTimeInMillis() {
             return remainingTimeMills;
@@ -0,0 +1,78 @@
+package com.ata.aws.lambda;
+
+/**
+ * Builds a single CloudWatch Embedded Metric Format record. Printed as one log line, CloudWatch Logs extracts the
+ * metrics from it without any agent or API call.
+ */
+final class EmbeddedMetrics {
+
+    static final String NAMESPACE = "LambdaJavaRuntime";
+
+    private final StringBuilder definitions = new StringBuilder();
+    private final StringBuilder values = new StringBuilder();
+
+    EmbeddedMetrics put(String name, double value, String unit) {
+        if (definitions.length() > 0) {
+            definitions.append(',');
+        }
+        definitions.append("{\"Name\":\"").append(name).append("\",\"Unit\":\"").append(unit).append("\"}");
+        values.append(",\"").append(name).append("\":").append(value);
+        return this;
+    }
+
+    EmbeddedMetrics put(String name, long value, String unit) {
+        if (definitions.length() > 0) {
+            definitions.append(',');
+        }
+        definitions.append("{\"Name\":\"").append(name).append("\",\"Unit\":\"").append(unit).append("\"}");
+        values.append(",\"").append(name).append("\":").append(value);
+        return this;
+    }
+
+    /**
+     * Adds a property which is kept in the log record but isn't a metric.
+     */
+    EmbeddedMetrics property(String name, Object value) {
+        values.append(",\"").append(name).append("\":");
+        if (value instanceof Number || value instanceof Boolean) {
+            values.append(value);
+        }
+        else {
+            appendString(values, String.valueOf(value));
+        }
+        return this;
+    }
+
+    String toJson() {
+        String functionName = System.getenv("AWS_LAMBDA_FUNCTION_NAME");
+
+        StringBuilder json = new StringBuilder(definitions.length() + values.length() + 256);
+        json.append("{\"_aws\":{\"Timestamp\":").append(System.currentTimeMillis())
+                .append(",\"CloudWatchMetrics\":[{\"Namespace\":\"").append(NAMESPACE)
+                .append("\",\"Dimensions\":[").append(functionName == null ? "[]" : "[\"FunctionName\"]")
+                .append("],\"Metrics\":[").append(definitions).append("]}]}");
+        if (functionName != null) {
+            json.append(",\"FunctionName\":");
+            appendString(json, functionName);
+        }
+        json.append(values).append('}');
+        return json.toString();
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
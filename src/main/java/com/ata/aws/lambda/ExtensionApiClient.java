@@ -0,0 +1,99 @@
+package com.ata.aws.lambda;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Client for the Lambda Extensions and Telemetry APIs, which registers the runtime as an internal extension so it can
+ * subscribe to the platform's telemetry. Used only during init and by the thread waiting on
+ * {@link #awaitEvents()}, so unlike {@link RuntimeApiClient} nothing is encoded up front.
+ */
+final class ExtensionApiClient implements Closeable {
+
+    static final String EXTENSION_NAME = "com.ata.lambda";
+
+    private static final String EXTENSION_BASE = "/2020-01-01/extension/";
+    private static final String TELEMETRY_PATH = "/2022-07-01/telemetry";
+    private static final String TELEMETRY_SCHEMA = "2022-12-13";
+
+    private final String runtimeApi;
+    private final HttpConnection connection;
+    private String extensionId;
+
+    ExtensionApiClient(String runtimeApi) {
+        this.runtimeApi = runtimeApi;
+        this.connection = new HttpConnection(runtimeApi);
+    }
+
+    /**
+     * Registers the extension. Has to happen during init, before the runtime asks for its first event. An internal
+     * extension doesn't subscribe to any lifecycle events, it's only registered for the Telemetry API.
+     */
+    void register() throws IOException {
+        send("POST", EXTENSION_BASE + "register", "Lambda-Extension-Name: " + EXTENSION_NAME, "{\"events\":[]}");
+        extensionId = connection.header("Lambda-Extension-Identifier");
+        connection.skipBody();
+        if (extensionId == null) {
+            throw new IOException("Extensions API didn't return an extension identifier");
+        }
+    }
+
+    /**
+     * Subscribes the listener at the given URI to the platform's telemetry, delivered at most every
+     * {@code timeoutMs} in batches of up to {@code maxItems} events.
+     */
+    void subscribeTelemetry(String listenerUri, int maxItems, int timeoutMs) throws IOException {
+        String subscription = "{\"schemaVersion\":\"" + TELEMETRY_SCHEMA + "\",\"types\":[\"platform\"],"
+                + "\"buffering\":{\"maxItems\":" + maxItems + ",\"maxBytes\":262144,\"timeoutMs\":" + timeoutMs + "},"
+                + "\"destination\":{\"protocol\":\"HTTP\",\"URI\":\"" + listenerUri + "\"}}";
+        send("PUT", TELEMETRY_PATH, "Lambda-Extension-Identifier: " + extensionId, subscription);
+        connection.skipBody();
+    }
+
+    /**
+     * Polls for extension events until the Extensions API goes away. Lambda only finishes init once every registered
+     * extension is polling, the events themselves are of no interest to an internal extension.
+     */
+    void awaitEvents() {
+        byte[] next = ascii("GET " + EXTENSION_BASE + "event/next HTTP/1.1\r\nHost: " + runtimeApi
+                + "\r\nLambda-Extension-Identifier: " + extensionId + "\r\n\r\n");
+        while (true) {
+            try {
+                connection.write(next);
+                connection.flush();
+                connection.readHead();
+                connection.skipBody();
+            }
+            catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends a request and reads the head of its response, which has to be a success.
+     */
+    private void send(String method, String path, String header, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        connection.write(ascii(method + " " + path + " HTTP/1.1\r\nHost: " + runtimeApi + "\r\n" + header
+                + "\r\nContent-Type: application/json\r\nContent-Length: " + bytes.length + "\r\n\r\n"));
+        connection.write(bytes);
+        connection.flush();
+
+        int status = connection.readHead();
+        if (status < 200 || status > 299) {
+            throw new IOException(method + " " + path + " rejected: " + status + " "
+                    + new String(connection.readBody(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+}
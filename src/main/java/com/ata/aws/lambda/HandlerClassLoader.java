@@ -0,0 +1,402 @@
+package com.ata.aws.lambda;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.SecureClassLoader;
+import java.security.cert.Certificate;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * Class loader for the function code. Rather than asking every jar in turn like {@code URLClassLoader}, it keeps an
+ * index from each package to the class path elements containing it, so a lookup only touches the jars that can
+ * actually hold the class. Jars are memory mapped and read through their central directory, see {@link MappedZip}.
+ *
+ * The index is built by reading the central directory of every jar at startup, unless the task root contains an
+ * up to date index written by {@link ClassPathIndex} at deploy time, in which case jars are only opened once one of
+ * their packages is needed. {@code Class-Path} manifest attributes aren't followed.
+ *
+ * It can also hand out a full privilege {@link MethodHandles.Lookup} inside itself, which binding handler methods
+ * with {@code LambdaMetafactory} requires.
+ */
+final class HandlerClassLoader extends SecureClassLoader {
+
+    private static final String BRIDGE = "com.ata.aws.lambda.bridge.LookupBridge";
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final List<Element> elements;
+    private final Map<String, Element[]> packages;
+    private MethodHandles.Lookup lookup;
+    private volatile List<String> recorded;
+
+    private HandlerClassLoader(List<Element> elements, Map<String, Element[]> packages, ClassLoader parent) {
+        super(parent);
+        this.elements = elements;
+        this.packages = packages;
+    }
+
+    /**
+     * Creates the loader for the function code in the task root, using its class path index if there is one.
+     */
+    static HandlerClassLoader create(File taskRoot, ClassLoader parent) throws IOException {
+        List<File> classPath = classPath(taskRoot);
+        List<Element> elements = new ArrayList<>(classPath.size());
+        for (File file : classPath) {
+            elements.add(file.isDirectory() ? new DirectoryElement(file) : new ZipElement(new MappedZip(file)));
+        }
+
+        Map<String, List<Element>> index = null;
+        File indexFile = new File(taskRoot, ClassPathIndex.FILE_NAME);
+        if (indexFile.isFile()) {
+            index = ClassPathIndex.read(indexFile, taskRoot, elements);
+            if (index == null) {
+                RingBufferLogger.getInstance().log(indexFile + " doesn't match the class path, scanning it instead");
+            }
+        }
+        if (index == null) {
+            index = scan(elements);
+        }
+
+        Map<String, Element[]> packages = new HashMap<>(index.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<Element>> entry : index.entrySet()) {
+            packages.put(entry.getKey(), entry.getValue().toArray(new Element[0]));
+        }
+        return new HandlerClassLoader(elements, packages, parent);
+    }
+
+    /**
+     * The task root itself, followed by the jars in it and in its lib folder, matching the official runtime.
+     */
+    static List<File> classPath(File taskRoot) {
+        List<File> classPath = new ArrayList<>();
+
+        // Add top level folders
+        classPath.add(taskRoot);
+
+        // Find any Top level jars or jars in the lib folder
+        File[] files = taskRoot.listFiles((dir, name) -> name.endsWith(".jar") || name.equals("lib"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File f : files) {
+                if (f.getName().equals("lib") && f.isDirectory()) {
+                    // Collect all Jars in /lib directory
+                    File[] jars = f.listFiles((dir, name) -> name.endsWith(".jar"));
+                    if (jars != null) {
+                        Arrays.sort(jars);
+                        classPath.addAll(Arrays.asList(jars));
+                    }
+                }
+                else if (f.isFile()) {
+                    classPath.add(f);
+                }
+            }
+        }
+        return classPath;
+    }
+
+    static Map<String, List<Element>> scan(List<Element> elements) {
+        Map<String, List<Element>> index = new HashMap<>();
+        for (Element element : elements) {
+            Set<String> packages;
+            try {
+                packages = element.packages();
+            }
+            catch (IOException e) {
+                // Like URLClassLoader, a broken jar only means its classes can't be found
+                RingBufferLogger.getInstance().log("Skipping " + element.file() + ": " + e);
+                continue;
+            }
+            for (String name : packages) {
+                index.computeIfAbsent(name, k -> new ArrayList<>(1)).add(element);
+            }
+        }
+        return index;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/') + ".class";
+        try {
+            for (Element element : elementsFor(path)) {
+                byte[] bytes = element.read(path);
+                if (bytes != null) {
+                    definePackageFor(name, element);
+                    Class<?> defined = defineClass(name, bytes, 0, bytes.length, element.protectionDomain(this));
+                    List<String> recording = recorded;
+                    if (recording != null) {
+                        recording.add(name);
+                    }
+                    return defined;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    private void definePackageFor(String className, Element element) throws IOException {
+        int dot = className.lastIndexOf('.');
+        if (dot < 0) {
+            return;
+        }
+        String name = className.substring(0, dot);
+        if (getDefinedPackage(name) != null) {
+            return;
+        }
+
+        try {
+            Manifest manifest = element.manifest();
+            if (manifest == null) {
+                definePackage(name, null, null, null, null, null, null, null);
+                return;
+            }
+            Attributes attributes = manifest.getMainAttributes();
+            definePackage(name,
+                    attributes.getValue(Attributes.Name.SPECIFICATION_TITLE),
+                    attributes.getValue(Attributes.Name.SPECIFICATION_VERSION),
+                    attributes.getValue(Attributes.Name.SPECIFICATION_VENDOR),
+                    attributes.getValue(Attributes.Name.IMPLEMENTATION_TITLE),
+                    attributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION),
+                    attributes.getValue(Attributes.Name.IMPLEMENTATION_VENDOR),
+                    null);
+        }
+        catch (IllegalArgumentException e) {
+            // Defined by another thread in the meantime
+        }
+    }
+
+    private Element[] elementsFor(String path) {
+        Element[] found = packages.get(MappedZip.packageOf(path));
+        return found == null ? new Element[0] : found;
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        try {
+            for (Element element : elementsFor(name)) {
+                if (element.contains(name)) {
+                    return element.url(name);
+                }
+            }
+            return null;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) throws IOException {
+        List<URL> urls = new ArrayList<>();
+        for (Element element : elementsFor(name)) {
+            if (element.contains(name)) {
+                urls.add(element.url(name));
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    /**
+     * Reads resources of the function straight from the mapped jar rather than through a {@code jar:} URL connection.
+     */
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        ClassLoader parent = getParent();
+        if (parent != null) {
+            InputStream in = parent.getResourceAsStream(name);
+            if (in != null) {
+                return in;
+            }
+        }
+        try {
+            for (Element element : elementsFor(name)) {
+                byte[] bytes = element.read(name);
+                if (bytes != null) {
+                    return new ByteArrayInputStream(bytes);
+                }
+            }
+            return null;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    List<Element> getElements() {
+        return elements;
+    }
+
+    /**
+     * Starts recording the names of the classes this loader defines, for {@link ClassPreloader}.
+     */
+    void startRecording() {
+        recorded = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /**
+     * The classes defined since recording started, in the order they were defined.
+     */
+    List<String> getRecordedClasses() {
+        List<String> recording = recorded;
+        if (recording == null) {
+            return Collections.emptyList();
+        }
+        synchronized (recording) {
+            return new ArrayList<>(recording);
+        }
+    }
+
+    /**
+     * Returns a lookup on a class defined by this loader, created on first use by defining the bridge class in it.
+     */
+    synchronized MethodHandles.Lookup lookup() throws ReflectiveOperationException, IOException {
+        if (lookup == null) {
+            byte[] bytes;
+            try (InputStream in = HandlerClassLoader.class.getResourceAsStream("/" + BRIDGE.replace('.', '/') + ".class")) {
+                if (in == null) {
+                    throw new ClassNotFoundException(BRIDGE);
+                }
+                bytes = in.readAllBytes();
+            }
+
+            Class<?> bridge = defineClass(BRIDGE, bytes, 0, bytes.length);
+            HandlerClassLoader.class.getModule().addReads(bridge.getModule());
+            lookup = (MethodHandles.Lookup) bridge.getMethod("lookup").invoke(null);
+        }
+        return lookup;
+    }
+
+    /**
+     * A directory or jar on the class path.
+     */
+    abstract static class Element {
+
+        private volatile ProtectionDomain protectionDomain;
+        private volatile Optional<Manifest> manifest;
+
+        abstract File file();
+
+        abstract Set<String> packages() throws IOException;
+
+        abstract boolean contains(String name) throws IOException;
+
+        abstract byte[] read(String name) throws IOException;
+
+        abstract URL url(String name);
+
+        ProtectionDomain protectionDomain(ClassLoader loader) throws IOException {
+            if (protectionDomain == null) {
+                CodeSource source = new CodeSource(file().toURI().toURL(), (Certificate[]) null);
+                protectionDomain = new ProtectionDomain(source, null, loader, null);
+            }
+            return protectionDomain;
+        }
+
+        Manifest manifest() throws IOException {
+            if (manifest == null) {
+                byte[] bytes = read("META-INF/MANIFEST.MF");
+                manifest = Optional.ofNullable(bytes == null ? null : new Manifest(new ByteArrayInputStream(bytes)));
+            }
+            return manifest.orElse(null);
+        }
+    }
+
+    private static final class ZipElement extends Element {
+
+        private final MappedZip zip;
+
+        ZipElement(MappedZip zip) {
+            this.zip = zip;
+        }
+
+        @Override
+        File file() {
+            return zip.getFile();
+        }
+
+        @Override
+        Set<String> packages() throws IOException {
+            return zip.packages();
+        }
+
+        @Override
+        boolean contains(String name) throws IOException {
+            return zip.contains(name);
+        }
+
+        @Override
+        byte[] read(String name) throws IOException {
+            return zip.read(name);
+        }
+
+        @Override
+        URL url(String name) {
+            return zip.url(name);
+        }
+    }
+
+    private static final class DirectoryElement extends Element {
+
+        private final File root;
+
+        DirectoryElement(File root) {
+            this.root = root;
+        }
+
+        @Override
+        File file() {
+            return root;
+        }
+
+        @Override
+        Set<String> packages() throws IOException {
+            Path base = root.toPath();
+            Set<String> packages = new HashSet<>();
+            try (Stream<Path> files = Files.walk(base)) {
+                files.filter(Files::isRegularFile).forEach(file -> {
+                    Path parent = base.relativize(file).getParent();
+                    packages.add(parent == null ? "" : parent.toString().replace(File.separatorChar, '/'));
+                });
+            }
+            return packages;
+        }
+
+        @Override
+        boolean contains(String name) {
+            return new File(root, name).isFile();
+        }
+
+        @Override
+        byte[] read(String name) throws IOException {
+            File file = new File(root, name);
+            return file.isFile() ? Files.readAllBytes(file.toPath()) : null;
+        }
+
+        @Override
+        URL url(String name) {
+            try {
+                return new File(root, name).toURI().toURL();
+            }
+            catch (MalformedURLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Functional interfaces handler methods are bound to with {@code LambdaMetafactory}, one per handler signature
+ * that isn't covered by {@code RequestStreamHandler} or {@code RequestHandler} already. Only public so the classes
+ * spun for handlers in the function's class loader can implement them, they aren't meant to be used directly.
+ */
+public final class HandlerFunctions {
+
+    private HandlerFunctions() {
+    }
+
+    /**
+     * {@code void handler(InputStream, OutputStream)}
+     */
+    public interface Stream {
+        void apply(InputStream input, OutputStream output) throws IOException;
+    }
+
+    /**
+     * {@code void handler(I, Context)}
+     */
+    public interface ConsumerWithContext {
+        void apply(Object input, Context context);
+    }
+
+    /**
+     * {@code O handler(I)}
+     */
+    public interface Function {
+        Object apply(Object input);
+    }
+
+    /**
+     * {@code void handler(I)}
+     */
+    public interface Consumer {
+        void apply(Object input);
+    }
+
+    /**
+     * {@code O handler()}
+     */
+    public interface Supplier {
+        Object apply();
+    }
+
+    /**
+     * {@code void handler()}
+     */
+    public interface Action {
+        void apply();
+    }
+}
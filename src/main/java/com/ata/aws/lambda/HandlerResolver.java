@@ -0,0 +1,293 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.BatchRecordHandler;
+import com.amazonaws.services.lambda.runtime.ByteBufferRequestHandler;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Turns the {@code _HANDLER} setting into something the runtime can invoke. A bare class name has to implement one of
+ * the handler interfaces. With {@code <class>::<method>} the named method is used instead, static or not, with any of
+ * the signatures the official runtime accepts:
+ *
+ * <ul>
+ *     <li>{@code (InputStream, OutputStream, Context)} and {@code (InputStream, OutputStream)}</li>
+ *     <li>{@code (I, Context)}, {@code (I)} and {@code ()}, returning {@code O} or {@code void}</li>
+ * </ul>
+ *
+ * If several overloads match, the one taking the most parameters wins. The method is bound once with
+ * {@link LambdaMetafactory} to one of the {@link HandlerFunctions}, so invoking it is a plain interface call.
+ */
+final class HandlerResolver {
+
+    private static final int STREAM_WITH_CONTEXT = 5;
+    private static final int STREAM = 4;
+    private static final int INPUT_WITH_CONTEXT = 3;
+    private static final int INPUT = 2;
+    private static final int NO_INPUT = 1;
+    private static final int UNSUPPORTED = 0;
+
+    private HandlerResolver() {
+    }
+
+    /**
+     * Returns either a {@link RequestStreamHandler} or a {@link ByteBufferRequestHandler} for the handler.
+     */
+    static Object resolve(Class<?> handlerClass, String methodName) throws Exception {
+        if (methodName == null) {
+            return adapt(instantiate(handlerClass), handlerClass.getName());
+        }
+
+        Method method = findMethod(handlerClass, methodName);
+        Object target = Modifier.isStatic(method.getModifiers()) ? null : instantiate(handlerClass);
+
+        // Handlers naming their interface method are dispatched through the interface as usual
+        if (target != null && method.getName().equals("handleRequest")
+                && (target instanceof RequestStreamHandler || target instanceof ByteBufferRequestHandler || target instanceof RequestHandler)
+                || target != null && method.getName().equals("handleRecord") && target instanceof BatchRecordHandler) {
+            return adapt(target, handlerClass.getName());
+        }
+
+        Object handler = bind(handlerClass, method, target);
+        StartupTracer.mark("bind");
+        return handler;
+    }
+
+    private static Object instantiate(Class<?> handlerClass) throws ReflectiveOperationException {
+        Object handler = handlerClass.getConstructor().newInstance();
+        StartupTracer.mark("constructor");
+        return handler;
+    }
+
+    private static Object adapt(Object handler, String name) {
+        if (handler instanceof RequestStreamHandler || handler instanceof ByteBufferRequestHandler) {
+            return handler;
+        }
+        if (handler instanceof RequestHandler) {
+            // Typed handlers get their JSON binders built now rather than on the first event
+            RequestHandlerAdapter adapter = new RequestHandlerAdapter((RequestHandler<?, ?>) handler);
+            StartupTracer.mark("binders");
+            return adapter;
+        }
+        if (handler instanceof BatchRecordHandler) {
+            BatchRecordAdapter adapter = new BatchRecordAdapter((BatchRecordHandler<?>) handler);
+            StartupTracer.mark("binders");
+            return adapter;
+        }
+        throw new IllegalArgumentException("Handler " + name + " must implement RequestStreamHandler, ByteBufferRequestHandler, RequestHandler or BatchRecordHandler, or name a method as <class>::<method>");
+    }
+
+    private static Method findMethod(Class<?> handlerClass, String methodName) throws NoSuchMethodException {
+        List<Method> candidates = new ArrayList<>();
+        for (Method method : handlerClass.getMethods()) {
+            if (method.getName().equals(methodName) && !method.isBridge() && !method.isSynthetic() && shape(method) != UNSUPPORTED) {
+                candidates.add(method);
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new NoSuchMethodException("No public method " + methodName + " with a supported signature in " + handlerClass.getName());
+        }
+
+        // Most parameters first, then by parameter types so the choice between equal overloads is stable
+        candidates.sort(Comparator.comparingInt(HandlerResolver::shape).reversed()
+                .thenComparing(method -> MethodType.methodType(void.class, method.getParameterTypes()).toString()));
+        return candidates.get(0);
+    }
+
+    private static int shape(Method method) {
+        Class<?>[] parameters = method.getParameterTypes();
+        switch (parameters.length) {
+            case 0:
+                return NO_INPUT;
+            case 1:
+                return INPUT;
+            case 2:
+                if (parameters[0] == InputStream.class && parameters[1] == OutputStream.class) {
+                    return method.getReturnType() == void.class ? STREAM : UNSUPPORTED;
+                }
+                return parameters[1] == Context.class ? INPUT_WITH_CONTEXT : UNSUPPORTED;
+            case 3:
+                if (parameters[0] == InputStream.class && parameters[1] == OutputStream.class && parameters[2] == Context.class) {
+                    return method.getReturnType() == void.class ? STREAM_WITH_CONTEXT : UNSUPPORTED;
+                }
+                return UNSUPPORTED;
+            default:
+                return UNSUPPORTED;
+        }
+    }
+
+    private static Object bind(Class<?> handlerClass, Method method, Object target) throws Exception {
+        int shape = shape(method);
+        boolean returns = method.getReturnType() != void.class;
+        Type input = shape == INPUT || shape == INPUT_WITH_CONTEXT ? method.getGenericParameterTypes()[0] : null;
+        Type output = method.getGenericReturnType();
+
+        switch (shape) {
+            case STREAM_WITH_CONTEXT:
+                return metafactory(handlerClass, method, target, RequestStreamHandler.class, "handleRequest");
+            case STREAM: {
+                HandlerFunctions.Stream function = metafactory(handlerClass, method, target, HandlerFunctions.Stream.class, "apply");
+                return (RequestStreamHandler) (in, out, context) -> function.apply(in, out);
+            }
+            case INPUT_WITH_CONTEXT:
+                if (returns) {
+                    @SuppressWarnings("unchecked")
+                    RequestHandler<Object, Object> function = metafactory(handlerClass, method, target, RequestHandler.class, "handleRequest");
+                    return new RequestHandlerAdapter(function, input, output);
+                }
+                else {
+                    HandlerFunctions.ConsumerWithContext function = metafactory(handlerClass, method, target, HandlerFunctions.ConsumerWithContext.class, "apply");
+                    return new RequestHandlerAdapter((event, context) -> {
+                        function.apply(event, context);
+                        return null;
+                    }, input, output);
+                }
+            case INPUT:
+                if (returns) {
+                    HandlerFunctions.Function function = metafactory(handlerClass, method, target, HandlerFunctions.Function.class, "apply");
+                    return new RequestHandlerAdapter((event, context) -> function.apply(event), input, output);
+                }
+                else {
+                    HandlerFunctions.Consumer function = metafactory(handlerClass, method, target, HandlerFunctions.Consumer.class, "apply");
+                    return new RequestHandlerAdapter((event, context) -> {
+                        function.apply(event);
+                        return null;
+                    }, input, output);
+                }
+            default:
+                if (returns) {
+                    HandlerFunctions.Supplier function = metafactory(handlerClass, method, target, HandlerFunctions.Supplier.class, "apply");
+                    return new RequestHandlerAdapter((event, context) -> function.apply(), null, output);
+                }
+                else {
+                    HandlerFunctions.Action function = metafactory(handlerClass, method, target, HandlerFunctions.Action.class, "apply");
+                    return new RequestHandlerAdapter((event, context) -> {
+                        function.apply();
+                        return null;
+                    }, null, output);
+                }
+        }
+    }
+
+    /**
+     * Spins an implementation of the functional interface which calls the handler method directly, with the handler
+     * instance bound for instance methods. Only possible for public methods of public classes defined by a
+     * {@link HandlerClassLoader}, anything else is bound to a method handle instead.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T metafactory(Class<?> handlerClass, Method method, Object target, Class<T> functionType, String functionName) throws Exception {
+        Method sam = findSam(functionType, functionName);
+        MethodType samType = MethodType.methodType(sam.getReturnType(), sam.getParameterTypes());
+
+        boolean direct = handlerClass.getClassLoader() instanceof HandlerClassLoader
+                && Modifier.isPublic(handlerClass.getModifiers())
+                && Modifier.isPublic(method.getDeclaringClass().getModifiers());
+        if (!direct) {
+            return bindHandle(method, target, functionType, samType);
+        }
+
+        MethodHandles.Lookup caller = ((HandlerClassLoader) handlerClass.getClassLoader()).lookup();
+        MethodHandle implementation = caller.unreflect(method);
+
+        // Arguments are checked against the method's own parameter types, boxed where they're primitive
+        MethodType instantiated = MethodType.methodType(method.getReturnType(), method.getParameterTypes()).wrap();
+        if (samType.returnType() == void.class) {
+            instantiated = instantiated.changeReturnType(void.class);
+        }
+
+        MethodType factoryType = target == null
+                ? MethodType.methodType(functionType)
+                : MethodType.methodType(functionType, handlerClass);
+        CallSite site = LambdaMetafactory.metafactory(caller, functionName, factoryType, samType, implementation, instantiated);
+        try {
+            return (T) (target == null ? site.getTarget().invoke() : site.getTarget().invoke(target));
+        }
+        catch (Exception | Error e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static Method findSam(Class<?> functionType, String functionName) {
+        for (Method method : functionType.getMethods()) {
+            if (method.getName().equals(functionName) && Modifier.isAbstract(method.getModifiers())) {
+                return method;
+            }
+        }
+        throw new IllegalStateException(functionType + " has no method " + functionName);
+    }
+
+    /**
+     * Fallback for handler methods {@link LambdaMetafactory} can't be pointed at: the functional interface is
+     * implemented by a lambda invoking a method handle to the handler method.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T bindHandle(Method method, Object target, Class<T> functionType, MethodType samType) throws IllegalAccessException {
+        method.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflect(method);
+        if (target != null) {
+            handle = handle.bindTo(target);
+        }
+        MethodHandle bound = handle.asType(samType);
+
+        if (functionType == RequestStreamHandler.class) {
+            return (T) (RequestStreamHandler) (in, out, context) -> invoke(bound, in, out, context);
+        }
+        if (functionType == HandlerFunctions.Stream.class) {
+            return (T) (HandlerFunctions.Stream) (in, out) -> invoke(bound, in, out);
+        }
+        if (functionType == RequestHandler.class) {
+            return (T) (RequestHandler<Object, Object>) (in, context) -> invoke(bound, in, context);
+        }
+        if (functionType == HandlerFunctions.ConsumerWithContext.class) {
+            return (T) (HandlerFunctions.ConsumerWithContext) (in, context) -> invoke(bound, in, context);
+        }
+        if (functionType == HandlerFunctions.Function.class) {
+            return (T) (HandlerFunctions.Function) in -> invoke(bound, in);
+        }
+        if (functionType == HandlerFunctions.Consumer.class) {
+            return (T) (HandlerFunctions.Consumer) in -> invoke(bound, in);
+        }
+        if (functionType == HandlerFunctions.Supplier.class) {
+            return (T) (HandlerFunctions.Supplier) () -> invoke(bound);
+        }
+        return (T) (HandlerFunctions.Action) () -> invoke(bound);
+    }
+
+    private static Object invoke(MethodHandle handle, Object... arguments) {
+        try {
+            return handle.invokeWithArguments(arguments);
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            throw sneakyThrow(t);
+        }
+    }
+
+    /**
+     * Rethrows checked exceptions from the handler as they are, like a direct call through the interface would.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> RuntimeException sneakyThrow(Throwable t) throws E {
+        throw (E) t;
+    }
+}
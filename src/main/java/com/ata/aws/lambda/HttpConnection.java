@@ -0,0 +1,516 @@
+package com.ata.aws.lambda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A single long-lived HTTP/1.1 connection with just enough of a request writer and response parser to talk to
+ * the Lambda Runtime API. Requests are written as raw bytes, so callers can pre-encode everything that doesn't
+ * change between invocations.
+ */
+final class HttpConnection implements Closeable {
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int MAX_HEADER_SIZE = 1024 * 1024;
+    private static final byte[] HTTP_1 = "HTTP/1.".getBytes(StandardCharsets.US_ASCII);
+
+    private final InetSocketAddress address;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] lineBuffer = new byte[BUFFER_SIZE];
+    private final SimpleHttpResponse response = new SimpleHttpResponse(this);
+
+    // Header lines of the last response, and the start and end of the name and value of each
+    private byte[] headerBytes = new byte[BUFFER_SIZE];
+    private int headerLength;
+    private int[] headerBounds = new int[64];
+    private int headerCount;
+    private SocketChannel channel;
+    private long headersReadAt;
+
+    HttpConnection(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon < 0) {
+            this.address = new InetSocketAddress(hostAndPort, 80);
+        }
+        else {
+            this.address = new InetSocketAddress(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1)));
+        }
+    }
+
+    boolean isOpen() {
+        return channel != null && channel.isOpen();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (isOpen()) {
+            return;
+        }
+
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        readBuffer.clear().flip();
+        writeBuffer.clear();
+    }
+
+    void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+
+        while (length > 0) {
+            if (!writeBuffer.hasRemaining()) {
+                drainWriteBuffer();
+            }
+            int n = Math.min(length, writeBuffer.remaining());
+            writeBuffer.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Writes a string that is known to be plain ASCII, ie. a request id, without encoding it to a byte array first.
+     */
+    void writeAscii(String value) throws IOException {
+        ensureOpen();
+
+        for (int i = 0; i < value.length(); i++) {
+            if (!writeBuffer.hasRemaining()) {
+                drainWriteBuffer();
+            }
+            writeBuffer.put((byte) value.charAt(i));
+        }
+    }
+
+    void writeDecimal(long value) throws IOException {
+        ensureOpen();
+
+        if (writeBuffer.remaining() < 20) {
+            drainWriteBuffer();
+        }
+        if (value == 0) {
+            writeBuffer.put((byte) '0');
+            return;
+        }
+
+        int start = writeBuffer.position();
+        while (value > 0) {
+            writeBuffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        }
+
+        // Digits were written least significant first, reverse them in place
+        for (int i = start, j = writeBuffer.position() - 1; i < j; i++, j--) {
+            byte tmp = writeBuffer.get(i);
+            writeBuffer.put(i, writeBuffer.get(j));
+            writeBuffer.put(j, tmp);
+        }
+    }
+
+    void writeHex(int value) throws IOException {
+        ensureOpen();
+
+        if (writeBuffer.remaining() < 8) {
+            drainWriteBuffer();
+        }
+        int shift = 28;
+        while (shift > 0 && (value >>> shift) == 0) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            writeBuffer.put((byte) Character.forDigit((value >>> shift) & 0xF, 16));
+        }
+    }
+
+    void flush() throws IOException {
+        ensureOpen();
+        drainWriteBuffer();
+    }
+
+    private void drainWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Reads the status line and headers of the next response. The headers are kept as raw bytes until one of them is
+     * asked for, and only until the next response is read, so reading a response allocates nothing on its own.
+     */
+    int readHead() throws IOException {
+        if (!isOpen()) {
+            throw new EOFException("Connection to " + address + " is closed");
+        }
+
+        headerCount = 0;
+        headerLength = 0;
+        int length = readLine(false);
+
+        // HTTP/1.x 200 OK
+        if (length < 12 || !startsWith(lineBuffer, HTTP_1) || lineBuffer[8] != ' ') {
+            throw new IOException("Malformed status line: " + new String(lineBuffer, 0, length, StandardCharsets.ISO_8859_1));
+        }
+        int status = 0;
+        for (int i = 9; i < 12; i++) {
+            int digit = lineBuffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Malformed status line: " + new String(lineBuffer, 0, length, StandardCharsets.ISO_8859_1));
+            }
+            status = status * 10 + digit;
+        }
+
+        // Header lines are read straight into the header block, with the bounds of their name and value noted
+        while (true) {
+            int lineStart = headerLength;
+            int end = lineStart + readLine(true);
+            if (end == lineStart) {
+                break;
+            }
+
+            int colon = lineStart;
+            while (colon < end && headerBytes[colon] != ':') {
+                colon++;
+            }
+            if (colon == lineStart || colon == end) {
+                continue;
+            }
+            int valueStart = colon + 1;
+            while (valueStart < end && (headerBytes[valueStart] == ' ' || headerBytes[valueStart] == '\t')) {
+                valueStart++;
+            }
+            int valueEnd = end;
+            while (valueEnd > valueStart && (headerBytes[valueEnd - 1] == ' ' || headerBytes[valueEnd - 1] == '\t')) {
+                valueEnd--;
+            }
+
+            if (headerCount * 4 == headerBounds.length) {
+                headerBounds = Arrays.copyOf(headerBounds, headerBounds.length * 2);
+            }
+            int bound = headerCount++ * 4;
+            headerBounds[bound] = lineStart;
+            headerBounds[bound + 1] = colon;
+            headerBounds[bound + 2] = valueStart;
+            headerBounds[bound + 3] = valueEnd;
+        }
+
+        headersReadAt = System.nanoTime();
+        return status;
+    }
+
+    /**
+     * The first value of a header of the last response, or null if it doesn't have one.
+     */
+    String header(String name) {
+        return header(name, null);
+    }
+
+    /**
+     * Like {@link #header(String)}, but returns the given string instead of a new one if it has the same value. Meant
+     * for headers which hardly ever change, ie. the function ARN.
+     */
+    String header(String name, String reuse) {
+        int bound = findHeader(name);
+        if (bound < 0) {
+            return null;
+        }
+        int start = headerBounds[bound + 2];
+        int length = headerBounds[bound + 3] - start;
+        if (reuse != null && reuse.length() == length) {
+            int i = 0;
+            while (i < length && reuse.charAt(i) == (headerBytes[start + i] & 0xFF)) {
+                i++;
+            }
+            if (i == length) {
+                return reuse;
+            }
+        }
+        return new String(headerBytes, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * The value of a numeric header of the last response, or the given default if it doesn't have it.
+     */
+    long headerLong(String name, long missing) throws IOException {
+        int bound = findHeader(name);
+        if (bound < 0) {
+            return missing;
+        }
+        int start = headerBounds[bound + 2];
+        int end = headerBounds[bound + 3];
+        if (start == end) {
+            throw new IOException("Empty " + name + " header");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = headerBytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Malformed " + name + " header: " + header(name));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private boolean headerEquals(String name, String value) {
+        int bound = findHeader(name);
+        return bound >= 0 && equalsIgnoreCase(headerBounds[bound + 2], headerBounds[bound + 3], value);
+    }
+
+    private int findHeader(String name) {
+        for (int bound = 0; bound < headerCount * 4; bound += 4) {
+            if (equalsIgnoreCase(headerBounds[bound], headerBounds[bound + 1], name)) {
+                return bound;
+            }
+        }
+        return -1;
+    }
+
+    private boolean equalsIgnoreCase(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            int a = headerBytes[start + i] & 0xFF;
+            int b = value.charAt(i);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * All headers of the last response, for callers that want them as a map.
+     */
+    Map<String, List<String>> headers() {
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int bound = 0; bound < headerCount * 4; bound += 4) {
+            String name = new String(headerBytes, headerBounds[bound], headerBounds[bound + 1] - headerBounds[bound], StandardCharsets.ISO_8859_1);
+            String value = new String(headerBytes, headerBounds[bound + 2], headerBounds[bound + 3] - headerBounds[bound + 2], StandardCharsets.ISO_8859_1);
+            headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+        }
+        return headers;
+    }
+
+    /**
+     * Reads the next response, with its body read into a buffer of the pool. The caller has to release the buffer
+     * once it's done with the response. The same response object is handed out every time, and only stays valid
+     * until the next response is read from the connection.
+     */
+    SimpleHttpResponse readResponse(BufferPool pool) throws IOException {
+        int status = readHead();
+
+        ByteBuffer body;
+        long length = headerLong("Content-Length", -1);
+        if (length >= 0) {
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Response body too large: " + length);
+            }
+            body = pool.acquire((int) length);
+            readFixedBody(body);
+        }
+        else if (headerEquals("Transfer-Encoding", "chunked")) {
+            byte[] chunked = readChunkedBody();
+            body = pool.acquire(chunked.length);
+            body.put(chunked).flip();
+        }
+        else {
+            body = pool.acquire(0);
+            body.flip();
+        }
+
+        closeIfRequested();
+        return response.reset(status, body);
+    }
+
+    /**
+     * Reads the body of the response whose head was just read into a new array.
+     */
+    byte[] readBody() throws IOException {
+        byte[] body;
+        long length = headerLong("Content-Length", -1);
+        if (length >= 0) {
+            body = new byte[(int) length];
+            readFixedBody(ByteBuffer.wrap(body));
+        }
+        else if (headerEquals("Transfer-Encoding", "chunked")) {
+            body = readChunkedBody();
+        }
+        else {
+            body = new byte[0];
+        }
+        closeIfRequested();
+        return body;
+    }
+
+    /**
+     * Discards the body of the response whose head was just read.
+     */
+    void skipBody() throws IOException {
+        long remaining = headerLong("Content-Length", -1);
+        if (remaining < 0) {
+            readBody();
+            return;
+        }
+        while (remaining > 0) {
+            if (!readBuffer.hasRemaining()) {
+                fill();
+            }
+            int n = (int) Math.min(remaining, readBuffer.remaining());
+            readBuffer.position(readBuffer.position() + n);
+            remaining -= n;
+        }
+        closeIfRequested();
+    }
+
+    private void closeIfRequested() {
+        if (headerEquals("Connection", "close")) {
+            close();
+        }
+    }
+
+    /**
+     * The {@link System#nanoTime()} at which the headers of the last response were read.
+     */
+    long getHeadersReadAt() {
+        return headersReadAt;
+    }
+
+    /**
+     * Fills the given buffer up to its limit, first from whatever is left in the read buffer and then straight from
+     * the socket. The buffer is flipped for reading afterwards.
+     */
+    private void readFixedBody(ByteBuffer body) throws IOException {
+        if (readBuffer.remaining() <= body.remaining()) {
+            body.put(readBuffer);
+        }
+        else {
+            int limit = readBuffer.limit();
+            readBuffer.limit(readBuffer.position() + body.remaining());
+            body.put(readBuffer);
+            readBuffer.limit(limit);
+        }
+
+        while (body.hasRemaining()) {
+            if (channel.read(body) < 0) {
+                throw new EOFException("Connection closed while reading response body");
+            }
+        }
+        body.flip();
+    }
+
+    private byte[] readChunkedBody() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        while (true) {
+            String sizeLine = readLine();
+            int extension = sizeLine.indexOf(';');
+            int size = Integer.parseInt((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+            if (size == 0) {
+                break;
+            }
+            byte[] chunk = new byte[size];
+            readFixedBody(ByteBuffer.wrap(chunk));
+            body.write(chunk, 0, size);
+            readLine();
+        }
+
+        // Skip any trailers
+        while (!readLine().isEmpty()) {
+        }
+
+        return body.toByteArray();
+    }
+
+    private String readLine() throws IOException {
+        return new String(lineBuffer, 0, readLine(false), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Reads a line without its line break, either into the line buffer or appended to the header block. Returns its
+     * length.
+     */
+    private int readLine(boolean header) throws IOException {
+        byte[] target = header ? headerBytes : lineBuffer;
+        int start = header ? headerLength : 0;
+        int length = start;
+
+        while (true) {
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    if (length > start && target[length - 1] == '\r') {
+                        length--;
+                    }
+                    if (header) {
+                        headerLength = length;
+                    }
+                    return length - start;
+                }
+                if (length == target.length) {
+                    if (!header || target.length >= MAX_HEADER_SIZE) {
+                        throw new IOException("Response header too long");
+                    }
+                    target = headerBytes = Arrays.copyOf(headerBytes, headerBytes.length * 2);
+                }
+                target[length++] = b;
+            }
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        readBuffer.flip();
+        if (n < 0) {
+            close();
+            throw new EOFException("Connection closed by " + address);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                // Nothing useful to do, a new connection is opened on the next request
+            }
+            channel = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HttpConnection{" + address + '}';
+    }
+}
@@ -0,0 +1,308 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@link Context} handed to the handler. One instance is created per runtime and refreshed in place from the
+ * headers of every event, so invocations don't allocate a context of their own. The client context and Cognito
+ * identity are only parsed if the handler asks for them, under the context's lock, since the records of a batch read
+ * the context from several threads at once.
+ *
+ * Like the event itself, the context is only valid until the handler returns.
+ */
+final class InvocationContext implements CachingContext {
+
+    private final LambdaLogger logger;
+
+    private final Identity identity = new Identity();
+    private final ClientContextImpl clientContext = new ClientContextImpl();
+
+    private String requestId;
+    private long deadlineMs;
+    private String invokedFunctionArn;
+    private String rawIdentity;
+    private String rawClientContext;
+    private boolean identityParsed;
+    private boolean clientContextParsed;
+
+    InvocationContext(LambdaLogger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Points the context at the invocation of the event. The JSON headers are kept as they are until they're accessed,
+     * and the function ARN, which only changes between aliases and versions, isn't copied again if it's the same.
+     */
+    synchronized void update(SimpleHttpResponse event) throws IOException {
+        this.requestId = event.getHeader("Lambda-Runtime-Aws-Request-Id");
+        this.deadlineMs = event.getHeaderLong("Lambda-Runtime-Deadline-Ms", 0);
+        this.invokedFunctionArn = event.getHeader("Lambda-Runtime-Invoked-Function-Arn", invokedFunctionArn);
+        this.rawClientContext = event.getHeader("Lambda-Runtime-Client-Context");
+        this.rawIdentity = event.getHeader("Lambda-Runtime-Cognito-Identity");
+        this.clientContextParsed = false;
+        this.identityParsed = false;
+    }
+
+    long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    @Override
+    public String getAwsRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public String getLogGroupName() {
+        return ContextFactory.environment().logGroupName;
+    }
+
+    @Override
+    public String getLogStreamName() {
+        return ContextFactory.environment().logStreamName;
+    }
+
+    @Override
+    public String getFunctionName() {
+        return ContextFactory.environment().functionName;
+    }
+
+    @Override
+    public String getFunctionVersion() {
+        return ContextFactory.environment().functionVersion;
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+        return invokedFunctionArn;
+    }
+
+    @Override
+    public synchronized CognitoIdentity getIdentity() {
+        if (rawIdentity == null) {
+            return null;
+        }
+        if (!identityParsed) {
+            identity.parse(rawIdentity);
+            identityParsed = true;
+        }
+        return identity;
+    }
+
+    @Override
+    public synchronized ClientContext getClientContext() {
+        if (rawClientContext == null) {
+            return null;
+        }
+        if (!clientContextParsed) {
+            clientContext.parse(rawClientContext);
+            clientContextParsed = true;
+        }
+        return clientContext;
+    }
+
+    @Override
+    public WarmCache getCache() {
+        return WarmStateCache.shared();
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+        if (deadlineMs == 0) {
+            return 0;
+        }
+        return (int) Math.max(0, deadlineMs - System.currentTimeMillis());
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+        return ContextFactory.environment().memoryLimitInMb;
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+        return logger;
+    }
+
+    private final class Identity implements CognitoIdentity {
+
+        private String identityId;
+        private String identityPoolId;
+
+        void parse(String json) {
+            identityId = null;
+            identityPoolId = null;
+            try {
+                JsonReader reader = JsonReader.of(json);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("cognitoIdentityId")) {
+                        identityId = nextStringOrNull(reader);
+                    }
+                    else if (name.equals("cognitoIdentityPoolId")) {
+                        identityPoolId = nextStringOrNull(reader);
+                    }
+                    else {
+                        reader.skipValue();
+                    }
+                }
+            }
+            catch (IOException e) {
+                logger.log("Ignoring malformed Lambda-Runtime-Cognito-Identity for " + requestId + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public String getIdentityId() {
+            return identityId;
+        }
+
+        @Override
+        public String getIdentityPoolId() {
+            return identityPoolId;
+        }
+    }
+
+    private final class ClientContextImpl implements ClientContext, Client {
+
+        private boolean hasClient;
+        private String installationId;
+        private String appTitle;
+        private String appVersionName;
+        private String appVersionCode;
+        private String appPackageName;
+        private Map<String, String> custom;
+        private Map<String, String> environment;
+
+        void parse(String json) {
+            hasClient = false;
+            installationId = null;
+            appTitle = null;
+            appVersionName = null;
+            appVersionCode = null;
+            appPackageName = null;
+            custom = null;
+            environment = null;
+            try {
+                JsonReader reader = JsonReader.of(json);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.nextIfNull()) {
+                        continue;
+                    }
+                    if (name.equals("client")) {
+                        readClient(reader);
+                    }
+                    else if (name.equals("custom")) {
+                        custom = readStringMap(reader);
+                    }
+                    else if (name.equals("env")) {
+                        environment = readStringMap(reader);
+                    }
+                    else {
+                        reader.skipValue();
+                    }
+                }
+            }
+            catch (IOException e) {
+                logger.log("Ignoring malformed Lambda-Runtime-Client-Context for " + requestId + ": " + e.getMessage());
+            }
+        }
+
+        private void readClient(JsonReader reader) throws IOException {
+            hasClient = true;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "installation_id":
+                        installationId = nextStringOrNull(reader);
+                        break;
+                    case "app_title":
+                        appTitle = nextStringOrNull(reader);
+                        break;
+                    case "app_version_name":
+                        appVersionName = nextStringOrNull(reader);
+                        break;
+                    case "app_version_code":
+                        appVersionCode = nextStringOrNull(reader);
+                        break;
+                    case "app_package_name":
+                        appPackageName = nextStringOrNull(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        private Map<String, String> readStringMap(JsonReader reader) throws IOException {
+            Map<String, String> map = new TreeMap<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                map.put(name, nextStringOrNull(reader));
+            }
+            reader.endObject();
+            return map;
+        }
+
+        @Override
+        public Client getClient() {
+            return hasClient ? this : null;
+        }
+
+        @Override
+        public Map<String, String> getCustom() {
+            return custom;
+        }
+
+        @Override
+        public Map<String, String> getEnvironment() {
+            return environment;
+        }
+
+        @Override
+        public String getInstallationId() {
+            return installationId;
+        }
+
+        @Override
+        public String getAppTitle() {
+            return appTitle;
+        }
+
+        @Override
+        public String getAppVersionName() {
+            return appVersionName;
+        }
+
+        @Override
+        public String getAppVersionCode() {
+            return appVersionCode;
+        }
+
+        @Override
+        public String getAppPackageName() {
+            return appPackageName;
+        }
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.nextIfNull()) {
+            return null;
+        }
+        if (reader.peek() == JsonReader.BEGIN_OBJECT || reader.peek() == JsonReader.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -0,0 +1,183 @@
+package com.ata.aws.lambda;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Breaks each invocation down into the time spent waiting for the event, reading its body, in the handler, writing
+ * the response and waiting for the Runtime API to acknowledge it. Percentiles of each are logged as an Embedded
+ * Metric Format record every {@code LAMBDA_RUNTIME_METRICS_INTERVAL} seconds, which is also what turns them on.
+ *
+ * The record also has the garbage collections during the interval and, if the image includes the
+ * {@code jdk.management} module, the bytes the invocation loop allocated per invocation on average.
+ */
+final class InvocationMetrics {
+
+    private static final String[] PHASES = {"pollWait", "bodyRead", "handler", "responseWrite", "ack"};
+
+    static final int POLL_WAIT = 0;
+    static final int BODY_READ = 1;
+    static final int HANDLER = 2;
+    static final int RESPONSE_WRITE = 3;
+    static final int ACK = 4;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+    private final long intervalNanos;
+    private volatile long nextFlush;
+    // Set once the telemetry listener flushes, the workers then leave it to it
+    private volatile boolean flushedByTelemetry;
+
+    // The threads running invocation workers, and the counters as of the last record
+    private volatile long[] workerThreadIds = new long[0];
+    private final boolean allocationsAvailable = ModuleLayer.boot().findModule("jdk.management").isPresent();
+    private long allocatedBytes;
+    private long gcCount = gcCount();
+    private long gcMillis = gcMillis();
+
+    private InvocationMetrics(long intervalSeconds) {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        this.intervalNanos = intervalSeconds * 1_000_000_000L;
+        this.nextFlush = System.nanoTime() + intervalNanos;
+    }
+
+    /**
+     * Returns the metrics configured through the environment, or null if they're turned off.
+     */
+    static InvocationMetrics fromEnv() {
+        String interval = System.getenv("LAMBDA_RUNTIME_METRICS_INTERVAL");
+        if (interval == null || interval.trim().isEmpty() || Long.parseLong(interval.trim()) <= 0) {
+            return null;
+        }
+        return new InvocationMetrics(Long.parseLong(interval.trim()));
+    }
+
+    /**
+     * Adds the thread of an invocation worker to the threads whose allocations are counted.
+     */
+    synchronized void addWorker(Thread thread) {
+        long[] ids = Arrays.copyOf(workerThreadIds, workerThreadIds.length + 1);
+        ids[ids.length - 1] = thread.getId();
+        workerThreadIds = ids;
+        if (allocationsAvailable) {
+            allocatedBytes += Math.max(0, Allocations.allocatedBytes(thread.getId()));
+        }
+    }
+
+    void record(int phase, long nanos) {
+        histograms[phase].record(nanos);
+    }
+
+    /**
+     * Logs and resets the histograms if the interval has passed. Called after every invocation, so nothing is logged
+     * while the environment sits idle.
+     */
+    void flushIfDue() {
+        if (!flushedByTelemetry) {
+            flushIfDue(System.nanoTime());
+        }
+    }
+
+    /**
+     * Like {@link #flushIfDue()}, called by the {@link TelemetryListener} after each batch of telemetry, which arrives
+     * after the responses went out. From then on the workers no longer flush.
+     */
+    void flushFromTelemetry() {
+        flushedByTelemetry = true;
+        flushIfDue(System.nanoTime());
+    }
+
+    private void flushIfDue(long now) {
+        if (now - nextFlush < 0) {
+            return;
+        }
+        flush(now);
+    }
+
+    private synchronized void flush(long now) {
+        // Another worker may have flushed in the meantime
+        if (now - nextFlush < 0) {
+            return;
+        }
+        nextFlush = now + intervalNanos;
+
+        EmbeddedMetrics metrics = new EmbeddedMetrics();
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram.Snapshot snapshot = histograms[i].snapshotAndReset();
+            String prefix = "Invocation." + PHASES[i];
+            if (i == POLL_WAIT) {
+                metrics.put("Invocation.count", snapshot.getCount(), "Count");
+                putMemoryMetrics(metrics, snapshot.getCount());
+            }
+            metrics.put(prefix + ".p50", micros(snapshot.percentile(50)), "Microseconds")
+                    .put(prefix + ".p90", micros(snapshot.percentile(90)), "Microseconds")
+                    .put(prefix + ".p99", micros(snapshot.percentile(99)), "Microseconds")
+                    .put(prefix + ".max", micros(snapshot.getMax()), "Microseconds");
+        }
+
+        RingBufferLogger.getInstance().log(metrics.toJson());
+    }
+
+    private void putMemoryMetrics(EmbeddedMetrics metrics, long invocations) {
+        long count = gcCount();
+        long millis = gcMillis();
+        metrics.put("Invocation.gcCount", count - gcCount, "Count")
+                .put("Invocation.gcTime", millis - gcMillis, "Milliseconds");
+        gcCount = count;
+        gcMillis = millis;
+
+        // Not available for virtual threads
+        long allocated = allocationsAvailable ? allocatedBytes() : -1;
+        if (allocated >= 0) {
+            metrics.put("Invocation.allocatedBytes.avg", invocations == 0 ? 0 : (allocated - allocatedBytes) / invocations, "Bytes");
+            allocatedBytes = allocated;
+        }
+    }
+
+    private long allocatedBytes() {
+        long total = 0;
+        for (long id : workerThreadIds) {
+            long allocated = Allocations.allocatedBytes(id);
+            if (allocated < 0) {
+                return -1;
+            }
+            total += allocated;
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+
+    /**
+     * Kept apart so the {@code com.sun.management} classes are only loaded when the module is there.
+     */
+    private static final class Allocations {
+
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        static long allocatedBytes(long threadId) {
+            return THREADS.getThreadAllocatedBytes(threadId);
+        }
+    }
+}
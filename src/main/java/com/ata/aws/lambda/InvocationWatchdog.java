@@ -0,0 +1,153 @@
+package com.ata.aws.lambda;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Watches the deadline of the running invocation. If the handler is still running
+ * {@code LAMBDA_RUNTIME_TIMEOUT_MARGIN_MS} before the deadline, its thread is interrupted and a timeout error with
+ * the handler's stack is posted for the invocation, so Lambda doesn't have to kill the environment and the next
+ * event still finds a warm JVM.
+ *
+ * The error is posted over a connection of its own, the runtime's connection may be in the middle of a response.
+ * Anything the handler writes after that is rejected and the partial response is dropped by the runtime.
+ */
+final class InvocationWatchdog {
+
+    private static final int IDLE = 0;
+    private static final int ARMED = 1;
+    private static final int FIRING = 2;
+    private static final int FIRED = 3;
+
+    private static final String ERROR_TYPE = "TimeoutError";
+
+    private final long marginMs;
+    private final RuntimeApiClient client;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private final Thread thread;
+
+    // Written before the state is set to ARMED, which publishes them to the watchdog thread
+    private volatile Thread handlerThread;
+    private volatile String requestId;
+    private volatile ResponseStream response;
+    private volatile long fireAtMs;
+
+    private InvocationWatchdog(String runtimeApi, long marginMs) {
+        this.marginMs = marginMs;
+        this.client = new RuntimeApiClient(runtimeApi);
+        this.thread = new Thread(this::watch, "lambda-watchdog");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Returns the watchdog configured through the environment, or null if it's turned off.
+     */
+    static InvocationWatchdog fromEnv(String runtimeApi) {
+        String margin = System.getenv("LAMBDA_RUNTIME_TIMEOUT_MARGIN_MS");
+        if (margin == null || margin.trim().isEmpty() || Long.parseLong(margin.trim()) <= 0) {
+            return null;
+        }
+        return new InvocationWatchdog(runtimeApi, Long.parseLong(margin.trim()));
+    }
+
+    /**
+     * Starts watching the invocation about to be handled on the calling thread. Invocations without a deadline
+     * aren't watched.
+     */
+    void arm(String requestId, long deadlineMs, ResponseStream response) {
+        if (deadlineMs <= 0) {
+            return;
+        }
+        this.handlerThread = Thread.currentThread();
+        this.requestId = requestId;
+        this.response = response;
+        this.fireAtMs = deadlineMs - marginMs;
+        state.set(ARMED);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stops watching once the handler returned. Returns true if the watchdog fired, in which case the timeout error
+     * has been posted and the interrupt it raised is cleared, so nothing must be posted for the invocation anymore.
+     */
+    boolean disarm() {
+        while (true) {
+            int current = state.get();
+            if (current == IDLE) {
+                return false;
+            }
+            if (current == ARMED && state.compareAndSet(ARMED, IDLE)) {
+                return false;
+            }
+            if (current == FIRED) {
+                // The interrupt was delivered before FIRED was set, so it can't hit the runtime after this
+                Thread.interrupted();
+                state.set(IDLE);
+                return true;
+            }
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            if (state.get() != ARMED) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            long wait = fireAtMs - System.currentTimeMillis();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait * 1_000_000L);
+                continue;
+            }
+
+            if (state.compareAndSet(ARMED, FIRING)) {
+                // The invocation may have been replaced since the deadline was read, check it against the current one
+                if (fireAtMs - System.currentTimeMillis() > 0) {
+                    state.set(ARMED);
+                    continue;
+                }
+                fire();
+                state.set(FIRED);
+            }
+        }
+    }
+
+    private void fire() {
+        Thread target = handlerThread;
+        String id = requestId;
+
+        StackTraceElement[] stack = target.getStackTrace();
+        response.abort();
+        target.interrupt();
+
+        String message = "Invocation " + id + " interrupted " + marginMs + " ms before its deadline";
+        RingBufferLogger.getInstance().log(message);
+        try {
+            client.postError(id, ERROR_TYPE, formatError(message, stack));
+        }
+        catch (IOException e) {
+            RingBufferLogger.getInstance().log("POST timeout error: " + id + ": " + e);
+            client.close();
+        }
+    }
+
+    private static String formatError(String message, StackTraceElement[] stack) {
+        StringBuilder json = new StringBuilder(256 + stack.length * 64);
+        json.append("{\"errorMessage\":");
+        EmbeddedMetrics.appendString(json, message);
+        json.append(",\"errorType\":");
+        EmbeddedMetrics.appendString(json, ERROR_TYPE);
+        json.append(",\"stackTrace\":[");
+        for (int i = 0; i < stack.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            EmbeddedMetrics.appendString(json, stack[i].toString());
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,141 @@
+package com.ata.aws.lambda;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The event loop: polls the Runtime API for the next event, invokes the handler and posts its response, until the
+ * Runtime API goes away. Usually the runtime has one, run on the main thread. With
+ * {@code LAMBDA_RUNTIME_CONCURRENCY} set there are several, each with its own connection, context, buffers and
+ * watchdog, sharing only the handler and the metrics.
+ */
+final class InvocationWorker implements Runnable {
+
+    private static final RingBufferLogger logger = RingBufferLogger.getInstance();
+
+    private final RuntimeApiClient client;
+    private final Object handler;
+    private final InvocationWatchdog watchdog;
+    private final InvocationMetrics metrics;
+    private final SlowInvocationRecorder slowInvocations;
+    private final AtomicInteger remainingInvocations;
+    private final Runnable afterInvocation;
+
+    // One context per worker, refreshed in place for every event
+    private final InvocationContext context = (InvocationContext) ContextFactory.createContext();
+
+    /**
+     * @param slowInvocations      records the invocations that took too long, may be null
+     * @param remainingInvocations shared count of invocations after which the runtime stops, null to never stop
+     * @param afterInvocation      run after every invocation, may be null
+     */
+    InvocationWorker(RuntimeApiClient client, Object handler, InvocationWatchdog watchdog, InvocationMetrics metrics,
+                     SlowInvocationRecorder slowInvocations, AtomicInteger remainingInvocations, Runnable afterInvocation) {
+        this.client = client;
+        this.handler = handler;
+        this.watchdog = watchdog;
+        this.metrics = metrics;
+        this.slowInvocations = slowInvocations;
+        this.remainingInvocations = remainingInvocations;
+        this.afterInvocation = afterInvocation;
+    }
+
+    @Override
+    public void run() {
+        if (metrics != null) {
+            metrics.addWorker(Thread.currentThread());
+        }
+
+        while (true) {
+
+            // Get next Lambda Event
+            SimpleHttpResponse event;
+            try {
+                event = client.next();
+                StartupTracer.mark("firstPoll");
+            }
+            catch (IOException e) {
+                // The Runtime API is gone, which only happens when the environment is shutting down
+                e.printStackTrace();
+                return;
+            }
+            try {
+                context.update(event);
+            }
+            catch (IOException e) {
+                // A malformed deadline, the request id was read before it
+                e.printStackTrace();
+                if (context.getAwsRequestId() != null) {
+                    LambdaBootstrap.postError(client, context.getAwsRequestId(), "Invalid invocation headers", "RuntimeError");
+                }
+                continue;
+            }
+            String requestId = context.getAwsRequestId();
+
+            ResponseStream outputStream = client.openResponse(requestId);
+            boolean timedOut = false;
+            try{
+                // Invoke Handler Method, its output is sent to the Runtime API as it is written
+                long handlerStart = System.nanoTime();
+                if (watchdog != null) {
+                    watchdog.arm(requestId, context.getDeadlineMs(), outputStream);
+                }
+                try {
+                    LambdaBootstrap.invoke(handler, event, outputStream, context);
+                }
+                finally {
+                    timedOut = watchdog != null && watchdog.disarm();
+                }
+                long handlerEnd = System.nanoTime();
+                StartupTracer.mark("firstInvoke");
+
+                if (timedOut) {
+                    // The watchdog already posted the timeout error, whatever the handler wrote is dropped
+                    logger.flush();
+                    outputStream.abandon();
+                }
+                else {
+                    // Complete the response, anything the handler logged goes out first
+                    logger.flush();
+                    outputStream.finish();
+                    StartupTracer.mark("firstResponse");
+
+                    if (metrics != null) {
+                        metrics.record(InvocationMetrics.POLL_WAIT, client.getPollNanos());
+                        metrics.record(InvocationMetrics.BODY_READ, client.getBodyReadNanos());
+                        metrics.record(InvocationMetrics.ACK, client.getAckNanos());
+                        metrics.record(InvocationMetrics.HANDLER, handlerEnd - handlerStart);
+                        metrics.record(InvocationMetrics.RESPONSE_WRITE, System.nanoTime() - handlerEnd);
+                        metrics.flushIfDue();
+                    }
+                }
+
+                if (slowInvocations != null) {
+                    slowInvocations.record(requestId, System.nanoTime() - handlerStart);
+                }
+            }
+            catch (Exception e) {
+                logger.flush();
+                if (timedOut) {
+                    outputStream.abandon();
+                }
+                else {
+                    String error = LambdaBootstrap.formatError("Invocation Error", "RuntimeError");
+                    if (!outputStream.fail("RuntimeError", error)) {
+                        LambdaBootstrap.postError(client, requestId, "Invocation Error", "RuntimeError");
+                    }
+                }
+                e.printStackTrace();
+            }
+            StartupTracer.report();
+
+            if (afterInvocation != null) {
+                afterInvocation.run();
+            }
+
+            if (remainingInvocations != null && remainingInvocations.decrementAndGet() <= 0) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,994 @@
+package com.ata.aws.lambda;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads and writes values of one Java type as JSON. Binders are built once per type, the first time the type is
+ * seen, and cached: bean properties are resolved to {@link MethodHandle}s up front, so binding an object doesn't
+ * involve any reflective lookups.
+ *
+ * Supported are strings, primitives and their wrappers, {@link BigDecimal}, {@link BigInteger}, enums, arrays,
+ * lists, sets, maps with string keys, {@code byte[]} as base64 and beans. Beans need a no-arg constructor and expose
+ * their properties through getters and setters or public fields. Property names follow the accessor names like
+ * {@link java.beans.Introspector#decapitalize(String)}, so {@code getUrl} maps to {@code url} and {@code getURL} to
+ * {@code URL}. When reading, names that match no property exactly are matched ignoring case, so
+ * {@code eventSourceARN} binds to {@code setEventSourceArn}; unknown properties are ignored.
+ */
+abstract class JsonBinder<T> {
+
+    private static final Map<Type, JsonBinder<?>> BINDERS = new ConcurrentHashMap<>();
+    // Beans whose properties are being resolved, only ever accessed while holding the lock on BINDERS
+    private static final Map<Type, JsonBinder<?>> RESOLVING = new HashMap<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    abstract T read(JsonReader reader) throws IOException;
+
+    abstract void write(JsonWriter writer, T value) throws IOException;
+
+    /**
+     * Binds a value that was already read as a tree by {@link JsonReader#readValue()}, with the same conversions and
+     * checks as {@link #read}. Numbers beyond the range of a long are only as precise as the tree's doubles.
+     */
+    abstract T fromTree(Object tree) throws IOException;
+
+    @SuppressWarnings("unchecked")
+    static <T> JsonBinder<T> of(Type type) {
+        JsonBinder<?> binder = BINDERS.get(type);
+        if (binder == null) {
+            synchronized (BINDERS) {
+                binder = BINDERS.get(type);
+                if (binder == null) {
+                    binder = RESOLVING.get(type);
+                }
+                if (binder == null) {
+                    binder = create(type);
+                }
+            }
+        }
+        return (JsonBinder<T>) binder;
+    }
+
+    /**
+     * Creates and registers the binder for a type. Called while holding the lock. Beans are only published once their
+     * properties are resolved, until then they're kept aside so types referring to themselves get the same binder.
+     */
+    private static JsonBinder<?> create(Type type) {
+        JsonBinder<?> binder;
+        Class<?> raw = rawType(type);
+
+        if (raw == String.class) {
+            binder = STRING;
+        }
+        else if (raw == int.class || raw == Integer.class) {
+            binder = INTEGER;
+        }
+        else if (raw == long.class || raw == Long.class) {
+            binder = LONG;
+        }
+        else if (raw == double.class || raw == Double.class) {
+            binder = DOUBLE;
+        }
+        else if (raw == float.class || raw == Float.class) {
+            binder = FLOAT;
+        }
+        else if (raw == boolean.class || raw == Boolean.class) {
+            binder = BOOLEAN;
+        }
+        else if (raw == short.class || raw == Short.class) {
+            binder = SHORT;
+        }
+        else if (raw == byte.class || raw == Byte.class) {
+            binder = BYTE;
+        }
+        else if (raw == char.class || raw == Character.class) {
+            binder = CHARACTER;
+        }
+        else if (raw == BigDecimal.class) {
+            binder = BIG_DECIMAL;
+        }
+        else if (raw == BigInteger.class) {
+            binder = BIG_INTEGER;
+        }
+        else if (raw == byte[].class) {
+            binder = BYTES;
+        }
+        else if (raw == Object.class || raw == void.class || raw == Void.class) {
+            binder = OBJECT;
+        }
+        else if (raw.isEnum()) {
+            binder = enumBinder(raw);
+        }
+        else if (raw.isArray()) {
+            Type component = type instanceof GenericArrayType ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType();
+            binder = new ArrayBinder(rawType(component), of(component));
+        }
+        else if (Collection.class.isAssignableFrom(raw)) {
+            binder = new CollectionBinder(raw, of(typeArgument(type, 0)));
+        }
+        else if (Map.class.isAssignableFrom(raw)) {
+            binder = new MapBinder(of(typeArgument(type, 1)));
+        }
+        else {
+            BeanBinder bean = new BeanBinder(raw);
+            RESOLVING.put(type, bean);
+            try {
+                bean.resolve();
+            }
+            finally {
+                RESOLVING.remove(type);
+            }
+            binder = bean;
+        }
+
+        BINDERS.put(type, binder);
+        return binder;
+    }
+
+    static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        if (type instanceof WildcardType) {
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        }
+        // Unresolved type variables are bound dynamically
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * Resolves the actual type arguments a class supplies for a generic interface it implements, ie. the input and
+     * output types of a {@code RequestHandler}. Arguments that can't be resolved come back as {@code Object}.
+     */
+    static Type[] resolveTypeArguments(Class<?> type, Class<?> generic) {
+        Type[] resolved = resolveTypeArguments(type, generic, Collections.emptyMap());
+        if (resolved == null) {
+            resolved = new Type[generic.getTypeParameters().length];
+            Arrays.fill(resolved, Object.class);
+        }
+        return resolved;
+    }
+
+    private static Type[] resolveTypeArguments(Type type, Class<?> generic, Map<TypeVariable<?>, Type> bindings) {
+        Class<?> raw = rawType(type);
+        if (raw == null || !generic.isAssignableFrom(raw)) {
+            return null;
+        }
+
+        Map<TypeVariable<?>, Type> local = new HashMap<>();
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            TypeVariable<?>[] variables = raw.getTypeParameters();
+            for (int i = 0; i < variables.length; i++) {
+                local.put(variables[i], substitute(arguments[i], bindings));
+            }
+        }
+
+        if (raw == generic) {
+            Type[] resolved = new Type[raw.getTypeParameters().length];
+            for (int i = 0; i < resolved.length; i++) {
+                Type argument = local.get(raw.getTypeParameters()[i]);
+                resolved[i] = argument == null || argument instanceof TypeVariable ? Object.class : argument;
+            }
+            return resolved;
+        }
+
+        for (Type parent : raw.getGenericInterfaces()) {
+            Type[] resolved = resolveTypeArguments(parent, generic, local);
+            if (resolved != null) {
+                return resolved;
+            }
+        }
+        Type superclass = raw.getGenericSuperclass();
+        return superclass == null ? null : resolveTypeArguments(superclass, generic, local);
+    }
+
+    private static Type substitute(Type type, Map<TypeVariable<?>, Type> bindings) {
+        Type bound = type instanceof TypeVariable ? bindings.get(type) : null;
+        return bound != null ? bound : type;
+    }
+
+    private static final JsonBinder<String> STRING = new JsonBinder<String>() {
+        @Override
+        String read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : reader.nextString();
+        }
+
+        @Override
+        String fromTree(Object tree) throws IOException {
+            return tree == null ? null : textFromTree(tree);
+        }
+
+        @Override
+        void write(JsonWriter writer, String value) throws IOException {
+            writer.value(value);
+        }
+    };
+
+    private static final JsonBinder<Integer> INTEGER = new JsonBinder<Integer>() {
+        @Override
+        Integer read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : reader.nextInt();
+        }
+
+        @Override
+        Integer fromTree(Object tree) throws IOException {
+            return tree == null ? null : (int) longFromTree(tree, Integer.MIN_VALUE, Integer.MAX_VALUE, "an int");
+        }
+
+        @Override
+        void write(JsonWriter writer, Integer value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+            }
+            else {
+                writer.value(value.longValue());
+            }
+        }
+    };
+
+    private static final JsonBinder<Long> LONG = new JsonBinder<Long>() {
+        @Override
+        Long read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : reader.nextLong();
+        }
+
+        @Override
+        Long fromTree(Object tree) throws IOException {
+            return tree == null ? null : longFromTree(tree, Long.MIN_VALUE, Long.MAX_VALUE, "a long");
+        }
+
+        @Override
+        void write(JsonWriter writer, Long value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+            }
+            else {
+                writer.value(value.longValue());
+            }
+        }
+    };
+
+    private static final JsonBinder<Short> SHORT = new JsonBinder<Short>() {
+        @Override
+        Short read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : reader.nextShort();
+        }
+
+        @Override
+        Short fromTree(Object tree) throws IOException {
+            return tree == null ? null : (short) longFromTree(tree, Short.MIN_VALUE, Short.MAX_VALUE, "a short");
+        }
+
+        @Override
+        void write(JsonWriter writer, Short value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+            }
+            else {
+                writer.value(value.longValue());
+            }
+        }
+    };
+
+    private static final JsonBinder<Byte> BYTE = new JsonBinder<Byte>() {
+        @Override
+        Byte read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : reader.nextByte();
+        }
+
+        @Override
+        Byte fromTree(Object tree) throws IOException {
+            return tree == null ? null : (byte) longFromTree(tree, Byte.MIN_VALUE, Byte.MAX_VALUE, "a byte");
+        }
+
+        @Override
+        void write(JsonWriter writer, Byte value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+            }
+            else {
+                writer.value(value.longValue());
+            }
+        }
+    };
+
+    private static final JsonBinder<Double> DOUBLE = new JsonBinder<Double>() {
+        @Override
+        Double read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : reader.nextDouble();
+        }
+
+        @Override
+        Double fromTree(Object tree) throws IOException {
+            return tree == null ? null : doubleFromTree(tree);
+        }
+
+        @Override
+        void write(JsonWriter writer, Double value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+            }
+            else {
+                writer.value(value.doubleValue());
+            }
+        }
+    };
+
+    private static final JsonBinder<Float> FLOAT = new JsonBinder<Float>() {
+        @Override
+        Float read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : reader.nextFloat();
+        }
+
+        @Override
+        Float fromTree(Object tree) throws IOException {
+            if (tree == null) {
+                return null;
+            }
+            double value = doubleFromTree(tree);
+            if (Math.abs(value) > Float.MAX_VALUE && !Double.isInfinite(value)) {
+                throw new IOException(value + " is out of the range of a float");
+            }
+            return (float) value;
+        }
+
+        @Override
+        void write(JsonWriter writer, Float value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+            }
+            else {
+                // Go through the float's own decimal representation, widening would add spurious digits
+                writer.rawNumber(value.toString());
+            }
+        }
+    };
+
+    private static final JsonBinder<Boolean> BOOLEAN = new JsonBinder<Boolean>() {
+        @Override
+        Boolean read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : reader.nextBoolean();
+        }
+
+        @Override
+        Boolean fromTree(Object tree) throws IOException {
+            if (tree == null || tree instanceof Boolean) {
+                return (Boolean) tree;
+            }
+            if (tree.equals("true") || tree.equals("false")) {
+                return tree.equals("true");
+            }
+            throw mismatch("a boolean", tree);
+        }
+
+        @Override
+        void write(JsonWriter writer, Boolean value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+            }
+            else {
+                writer.value(value.booleanValue());
+            }
+        }
+    };
+
+    private static final JsonBinder<Character> CHARACTER = new JsonBinder<Character>() {
+        @Override
+        Character read(JsonReader reader) throws IOException {
+            if (reader.nextIfNull()) {
+                return null;
+            }
+            String value = reader.nextString();
+            return value.isEmpty() ? null : value.charAt(0);
+        }
+
+        @Override
+        Character fromTree(Object tree) throws IOException {
+            if (tree == null) {
+                return null;
+            }
+            String value = textFromTree(tree);
+            return value.isEmpty() ? null : value.charAt(0);
+        }
+
+        @Override
+        void write(JsonWriter writer, Character value) throws IOException {
+            writer.value(value == null ? null : value.toString());
+        }
+    };
+
+    private static final JsonBinder<BigDecimal> BIG_DECIMAL = new JsonBinder<BigDecimal>() {
+        @Override
+        BigDecimal read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : new BigDecimal(reader.nextNumber());
+        }
+
+        @Override
+        BigDecimal fromTree(Object tree) throws IOException {
+            return tree == null ? null : new BigDecimal(numberFromTree(tree));
+        }
+
+        @Override
+        void write(JsonWriter writer, BigDecimal value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+            }
+            else {
+                writer.rawNumber(value.toString());
+            }
+        }
+    };
+
+    private static final JsonBinder<BigInteger> BIG_INTEGER = new JsonBinder<BigInteger>() {
+        @Override
+        BigInteger read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : new BigInteger(reader.nextNumber());
+        }
+
+        @Override
+        BigInteger fromTree(Object tree) throws IOException {
+            if (tree instanceof Long) {
+                return BigInteger.valueOf((Long) tree);
+            }
+            // Integers past the range of a long are doubles in the tree, which BigInteger doesn't parse
+            return tree == null ? null : new BigDecimal(numberFromTree(tree)).toBigInteger();
+        }
+
+        @Override
+        void write(JsonWriter writer, BigInteger value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+            }
+            else {
+                writer.rawNumber(value.toString());
+            }
+        }
+    };
+
+    private static final JsonBinder<byte[]> BYTES = new JsonBinder<byte[]>() {
+        @Override
+        byte[] read(JsonReader reader) throws IOException {
+            return reader.nextIfNull() ? null : Base64.getDecoder().decode(reader.nextString());
+        }
+
+        @Override
+        byte[] fromTree(Object tree) throws IOException {
+            return tree == null ? null : Base64.getDecoder().decode(textFromTree(tree));
+        }
+
+        @Override
+        void write(JsonWriter writer, byte[] value) throws IOException {
+            writer.value(value == null ? null : Base64.getEncoder().encodeToString(value));
+        }
+    };
+
+    /**
+     * Binds values whose type isn't known up front. They're read as maps, lists, strings, numbers and booleans and
+     * written with the binder of their runtime class.
+     */
+    private static final JsonBinder<Object> OBJECT = new JsonBinder<Object>() {
+        @Override
+        Object read(JsonReader reader) throws IOException {
+            return reader.readValue();
+        }
+
+        @Override
+        Object fromTree(Object tree) throws IOException {
+            return tree;
+        }
+
+        @Override
+        void write(JsonWriter writer, Object value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+            }
+            else if (value instanceof Number && !(value instanceof BigDecimal) && !(value instanceof BigInteger)) {
+                if (value instanceof Double || value instanceof Float) {
+                    writer.value(((Number) value).doubleValue());
+                }
+                else {
+                    writer.value(((Number) value).longValue());
+                }
+            }
+            else if (value instanceof Enum) {
+                writer.value(((Enum<?>) value).name());
+            }
+            else if (value instanceof Map) {
+                MAP_OF_OBJECTS.write(writer, (Map<?, ?>) value);
+            }
+            else if (value instanceof Collection) {
+                @SuppressWarnings("unchecked")
+                Collection<Object> collection = (Collection<Object>) value;
+                LIST_OF_OBJECTS.write(writer, collection);
+            }
+            else {
+                of(value.getClass()).write(writer, value);
+            }
+        }
+    };
+
+    /**
+     * The text of a string, number or boolean in a tree, the way {@link JsonReader#nextString()} reads them.
+     */
+    private static String textFromTree(Object tree) throws IOException {
+        if (tree instanceof String || tree instanceof Number || tree instanceof Boolean) {
+            return tree.toString();
+        }
+        throw mismatch("a string", tree);
+    }
+
+    private static String numberFromTree(Object tree) throws IOException {
+        if (tree instanceof Number || tree instanceof String && JsonReader.isNumber((String) tree)) {
+            return tree.toString();
+        }
+        throw mismatch("a number", tree);
+    }
+
+    private static double doubleFromTree(Object tree) throws IOException {
+        return tree instanceof Number ? ((Number) tree).doubleValue() : Double.parseDouble(numberFromTree(tree));
+    }
+
+    private static long longFromTree(Object tree, long min, long max, String type) throws IOException {
+        long value;
+        try {
+            value = tree instanceof Long ? (Long) tree : Long.parseLong(textFromTree(tree));
+        }
+        catch (NumberFormatException e) {
+            double number = doubleFromTree(tree);
+            // Long.MAX_VALUE itself isn't a double, 2^63 is the first value past the range
+            if (!(number >= Long.MIN_VALUE && number < 0x1p63)) {
+                throw new IOException(tree + " is out of the range of a long");
+            }
+            value = (long) number;
+        }
+        if (value < min || value > max) {
+            throw new IOException(value + " is out of the range of " + type);
+        }
+        return value;
+    }
+
+    private static IOException mismatch(String expected, Object tree) {
+        String actual = tree instanceof Map ? "an object" : tree instanceof List ? "an array" : String.valueOf(tree);
+        return new IOException("Expected " + expected + " but was " + actual);
+    }
+
+    private static final MapBinder MAP_OF_OBJECTS = new MapBinder(OBJECT);
+    private static final CollectionBinder LIST_OF_OBJECTS = new CollectionBinder(List.class, OBJECT);
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static JsonBinder<?> enumBinder(Class<?> type) {
+        Class<? extends Enum> enumType = (Class<? extends Enum>) type;
+        return new JsonBinder<Enum>() {
+            @Override
+            Enum read(JsonReader reader) throws IOException {
+                return reader.nextIfNull() ? null : Enum.valueOf(enumType, reader.nextString());
+            }
+
+            @Override
+            Enum fromTree(Object tree) throws IOException {
+                return tree == null ? null : Enum.valueOf(enumType, textFromTree(tree));
+            }
+
+            @Override
+            void write(JsonWriter writer, Enum value) throws IOException {
+                writer.value(value == null ? null : value.name());
+            }
+        };
+    }
+
+    private static final class ArrayBinder extends JsonBinder<Object> {
+
+        private final Class<?> componentType;
+        private final JsonBinder<Object> component;
+
+        ArrayBinder(Class<?> componentType, JsonBinder<Object> component) {
+            this.componentType = componentType;
+            this.component = component;
+        }
+
+        @Override
+        Object read(JsonReader reader) throws IOException {
+            if (reader.nextIfNull()) {
+                return null;
+            }
+            List<Object> elements = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                elements.add(component.read(reader));
+            }
+            reader.endArray();
+
+            Object array = Array.newInstance(componentType, elements.size());
+            for (int i = 0; i < elements.size(); i++) {
+                Array.set(array, i, elements.get(i));
+            }
+            return array;
+        }
+
+        @Override
+        Object fromTree(Object tree) throws IOException {
+            if (tree == null) {
+                return null;
+            }
+            if (!(tree instanceof List)) {
+                throw mismatch("an array", tree);
+            }
+            List<?> elements = (List<?>) tree;
+            Object array = Array.newInstance(componentType, elements.size());
+            for (int i = 0; i < elements.size(); i++) {
+                Array.set(array, i, component.fromTree(elements.get(i)));
+            }
+            return array;
+        }
+
+        @Override
+        void write(JsonWriter writer, Object value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+                return;
+            }
+            writer.beginArray();
+            for (int i = 0, n = Array.getLength(value); i < n; i++) {
+                component.write(writer, Array.get(value, i));
+            }
+            writer.endArray();
+        }
+    }
+
+    private static final class CollectionBinder extends JsonBinder<Collection<Object>> {
+
+        private final boolean set;
+        private final JsonBinder<Object> element;
+
+        CollectionBinder(Class<?> type, JsonBinder<Object> element) {
+            this.set = Set.class.isAssignableFrom(type);
+            this.element = element;
+        }
+
+        @Override
+        Collection<Object> read(JsonReader reader) throws IOException {
+            if (reader.nextIfNull()) {
+                return null;
+            }
+            Collection<Object> collection = set ? new LinkedHashSet<>() : new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                collection.add(element.read(reader));
+            }
+            reader.endArray();
+            return collection;
+        }
+
+        @Override
+        Collection<Object> fromTree(Object tree) throws IOException {
+            if (tree == null) {
+                return null;
+            }
+            if (!(tree instanceof List)) {
+                throw mismatch("an array", tree);
+            }
+            List<?> elements = (List<?>) tree;
+            Collection<Object> collection = set ? new LinkedHashSet<>() : new ArrayList<>(elements.size());
+            for (Object item : elements) {
+                collection.add(element.fromTree(item));
+            }
+            return collection;
+        }
+
+        @Override
+        void write(JsonWriter writer, Collection<Object> value) throws IOException {
+            if (value == null) {
+                writer.nullValue();
+                return;
+            }
+            writer.beginArray();
+            for (Object item : value) {
+                element.write(writer, item);
+            }
+            writer.endArray();
+        }
+    }
+
+    private static final class MapBinder extends JsonBinder<Map<?, ?>> {
+
+        private final JsonBinder<Object> value;
+
+        MapBinder(JsonBinder<Object> value) {
+            this.value = value;
+        }
+
+        @Override
+        Map<?, ?> read(JsonReader reader) throws IOException {
+            if (reader.nextIfNull()) {
+                return null;
+            }
+            Map<String, Object> map = new LinkedHashMap<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                map.put(name, value.read(reader));
+            }
+            reader.endObject();
+            return map;
+        }
+
+        @Override
+        Map<?, ?> fromTree(Object tree) throws IOException {
+            if (tree == null) {
+                return null;
+            }
+            if (!(tree instanceof Map)) {
+                throw mismatch("an object", tree);
+            }
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) tree).entrySet()) {
+                map.put((String) entry.getKey(), value.fromTree(entry.getValue()));
+            }
+            return map;
+        }
+
+        @Override
+        void write(JsonWriter writer, Map<?, ?> map) throws IOException {
+            if (map == null) {
+                writer.nullValue();
+                return;
+            }
+            writer.beginObject();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writer.name(String.valueOf(entry.getKey()));
+                value.write(writer, entry.getValue());
+            }
+            writer.endObject();
+        }
+    }
+
+    /**
+     * Binds a bean through handles to its constructor, accessors and public fields.
+     */
+    private static final class BeanBinder extends JsonBinder<Object> {
+
+        private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+        private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+        private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+        private final Class<?> type;
+        private MethodHandle constructor;
+        private final Map<String, Property> writable = new HashMap<>();
+        // The writable properties by their lower cased name, for names that don't match exactly
+        private final Map<String, Property> writableIgnoringCase = new HashMap<>();
+        private Property[] readable;
+
+        BeanBinder(Class<?> type) {
+            this.type = type;
+        }
+
+        void resolve() {
+            try {
+                Constructor<?> noArgs = type.getDeclaredConstructor();
+                noArgs.setAccessible(true);
+                constructor = LOOKUP.unreflectConstructor(noArgs).asType(CONSTRUCTOR_TYPE);
+            }
+            catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+                // Still fine for writing, reading fails once it's attempted
+                constructor = null;
+            }
+
+            Map<String, Property> getters = new LinkedHashMap<>();
+            for (Field field : type.getFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                Property property = new Property(field.getName(), of(field.getGenericType()));
+                property.getter = handle(() -> LOOKUP.unreflectGetter(accessible(field)), GETTER_TYPE);
+                getters.put(property.name, property);
+                if (!Modifier.isFinal(modifiers)) {
+                    Property setter = new Property(field.getName(), property.binder);
+                    setter.setter = handle(() -> LOOKUP.unreflectSetter(accessible(field)), SETTER_TYPE);
+                    setter.primitive = field.getType().isPrimitive();
+                    writable.put(setter.name, setter);
+                }
+            }
+
+            for (Method method : type.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) || method.isBridge() || method.getDeclaringClass() == Object.class) {
+                    continue;
+                }
+                String name = method.getName();
+                Class<?>[] parameters = method.getParameterTypes();
+
+                String getterName = null;
+                if (parameters.length == 0 && method.getReturnType() != void.class) {
+                    if (name.startsWith("get") && name.length() > 3) {
+                        getterName = propertyName(name.substring(3));
+                    }
+                    else if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+                        getterName = propertyName(name.substring(2));
+                    }
+                }
+                if (getterName != null) {
+                    Property property = new Property(getterName, of(method.getGenericReturnType()));
+                    property.getter = handle(() -> LOOKUP.unreflect(accessible(method)), GETTER_TYPE);
+                    getters.put(getterName, property);
+                }
+                else if (parameters.length == 1 && name.startsWith("set") && name.length() > 3) {
+                    Property property = new Property(propertyName(name.substring(3)), of(method.getGenericParameterTypes()[0]));
+                    property.setter = handle(() -> LOOKUP.unreflect(accessible(method)), SETTER_TYPE);
+                    property.primitive = parameters[0].isPrimitive();
+                    writable.put(property.name, property);
+                }
+            }
+
+            for (Property property : writable.values()) {
+                writableIgnoringCase.putIfAbsent(property.name.toLowerCase(Locale.ROOT), property);
+            }
+            readable = getters.values().toArray(new Property[0]);
+        }
+
+        @Override
+        Object read(JsonReader reader) throws IOException {
+            if (reader.nextIfNull()) {
+                return null;
+            }
+            if (constructor == null) {
+                throw new IOException("Can't create " + type.getName() + ", it has no accessible no-arg constructor");
+            }
+
+            try {
+                Object bean = constructor.invokeExact();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    Property property = property(reader.nextName());
+                    if (property == null) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    Object value = property.binder.read(reader);
+                    if (value != null || !property.primitive) {
+                        property.setter.invokeExact(bean, value);
+                    }
+                }
+                reader.endObject();
+                return bean;
+            }
+            catch (IOException | RuntimeException | Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new IOException("Can't bind " + type.getName(), t);
+            }
+        }
+
+        @Override
+        Object fromTree(Object tree) throws IOException {
+            if (tree == null) {
+                return null;
+            }
+            if (!(tree instanceof Map)) {
+                throw mismatch("an object", tree);
+            }
+            if (constructor == null) {
+                throw new IOException("Can't create " + type.getName() + ", it has no accessible no-arg constructor");
+            }
+
+            try {
+                Object bean = constructor.invokeExact();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) tree).entrySet()) {
+                    Property property = property((String) entry.getKey());
+                    if (property == null) {
+                        continue;
+                    }
+                    Object value = property.binder.fromTree(entry.getValue());
+                    if (value != null || !property.primitive) {
+                        property.setter.invokeExact(bean, value);
+                    }
+                }
+                return bean;
+            }
+            catch (IOException | RuntimeException | Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new IOException("Can't bind " + type.getName(), t);
+            }
+        }
+
+        private Property property(String name) {
+            Property property = writable.get(name);
+            return property != null ? property : writableIgnoringCase.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        @Override
+        void write(JsonWriter writer, Object bean) throws IOException {
+            if (bean == null) {
+                writer.nullValue();
+                return;
+            }
+
+            try {
+                writer.beginObject();
+                for (Property property : readable) {
+                    writer.name(property.name);
+                    property.binder.write(writer, property.getter.invokeExact(bean));
+                }
+                writer.endObject();
+            }
+            catch (IOException | RuntimeException | Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new IOException("Can't bind " + type.getName(), t);
+            }
+        }
+
+        private interface HandleSupplier {
+            MethodHandle get() throws IllegalAccessException;
+        }
+
+        private static MethodHandle handle(HandleSupplier supplier, MethodType type) {
+            try {
+                return supplier.get().asType(type);
+            }
+            catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static <A extends AccessibleObject> A accessible(A member) {
+            // Beans in the function's own classes don't have to be public
+            member.setAccessible(true);
+            return member;
+        }
+
+        /**
+         * Lowers the first letter of an accessor name unless the first two are both upper case, the way
+         * {@code java.beans.Introspector} does without needing the {@code java.desktop} module.
+         */
+        private static String propertyName(String accessor) {
+            if (accessor.length() > 1 && Character.isUpperCase(accessor.charAt(0)) && Character.isUpperCase(accessor.charAt(1))) {
+                return accessor;
+            }
+            char[] chars = accessor.toCharArray();
+            chars[0] = Character.toLowerCase(chars[0]);
+            return new String(chars);
+        }
+    }
+
+    private static final class Property {
+
+        final String name;
+        final JsonBinder<Object> binder;
+        MethodHandle getter;
+        MethodHandle setter;
+        boolean primitive;
+
+        Property(String name, JsonBinder<Object> binder) {
+            this.name = name;
+            this.binder = binder;
+        }
+    }
+}
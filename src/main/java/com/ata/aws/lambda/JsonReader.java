@@ -0,0 +1,563 @@
+package com.ata.aws.lambda;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull parser for JSON read straight off a {@link Reader}, so documents never have to be held in memory as a whole.
+ * Values are consumed token by token with {@link #beginObject()}, {@link #nextName()}, {@link #nextString()} and
+ * friends, or as a tree of maps, lists and scalars with {@link #readValue()}.
+ *
+ * Anything that isn't valid JSON, and numbers that don't fit the type they're read as, fail with an
+ * {@link IOException} naming the position in the document.
+ */
+final class JsonReader {
+
+    public static final int BEGIN_OBJECT = 1;
+    public static final int END_OBJECT = 2;
+    public static final int BEGIN_ARRAY = 3;
+    public static final int END_ARRAY = 4;
+    public static final int NAME = 5;
+    public static final int STRING = 6;
+    public static final int NUMBER = 7;
+    public static final int BOOLEAN = 8;
+    public static final int NULL = 9;
+    public static final int END_DOCUMENT = 10;
+
+    private static final int NONE = 0;
+
+    // Scopes kept on the stack, they decide which separators to expect before the next token
+    private static final int EMPTY_DOCUMENT = 1;
+    private static final int NONEMPTY_DOCUMENT = 2;
+    private static final int EMPTY_ARRAY = 3;
+    private static final int NONEMPTY_ARRAY = 4;
+    private static final int EMPTY_OBJECT = 5;
+    private static final int DANGLING_NAME = 6;
+    private static final int NONEMPTY_OBJECT = 7;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    // Position in the document of the first character in the buffer
+    private long bufferStart;
+
+    private int[] stack = new int[32];
+    private int depth;
+    private int peeked = NONE;
+    private final StringBuilder text = new StringBuilder();
+
+    public JsonReader(Reader reader) {
+        this.reader = reader;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    public static JsonReader of(String json) {
+        return new JsonReader(new StringReader(json));
+    }
+
+    /**
+     * Parses a whole document into maps, lists, strings, numbers, booleans and nulls.
+     */
+    public static Object parse(String json) throws IOException {
+        return of(json).readValue();
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    public int peek() throws IOException {
+        if (peeked != NONE) {
+            return peeked;
+        }
+
+        int scope = stack[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = END_ARRAY;
+                }
+                position--;
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                stack[depth - 1] = DANGLING_NAME;
+                return peeked = NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("Expected end of document");
+                }
+                return peeked = END_DOCUMENT;
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return peeked = BEGIN_OBJECT;
+            case '[':
+                return peeked = BEGIN_ARRAY;
+            case '"':
+                return peeked = STRING;
+            case 't':
+            case 'f':
+                position--;
+                return peeked = BOOLEAN;
+            case 'n':
+                position--;
+                return peeked = NULL;
+            case -1:
+                throw syntaxError("Unexpected end of document");
+            default:
+                position--;
+                return peeked = NUMBER;
+        }
+    }
+
+    public void beginObject() throws IOException {
+        expect(BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * Whether the current object or array has another element.
+     */
+    public boolean hasNext() throws IOException {
+        int p = peek();
+        return p != END_OBJECT && p != END_ARRAY && p != END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(NAME);
+        return readString();
+    }
+
+    /**
+     * Returns the next string. Numbers and booleans are returned as their literal text.
+     */
+    public String nextString() throws IOException {
+        int p = peek();
+        if (p == STRING) {
+            peeked = NONE;
+            return readString();
+        }
+        if (p == NUMBER || p == BOOLEAN) {
+            peeked = NONE;
+            String literal = readLiteral();
+            if (p == NUMBER ? !isNumber(literal) : !literal.equals("true") && !literal.equals("false")) {
+                throw syntaxError("Invalid literal " + literal);
+            }
+            return literal;
+        }
+        throw syntaxError("Expected a string");
+    }
+
+    /**
+     * Returns the literal text of the next number. Quoted numbers are accepted as well.
+     */
+    public String nextNumber() throws IOException {
+        int p = peek();
+        if (p != NUMBER && p != STRING) {
+            throw syntaxError("Expected a number");
+        }
+        return nextString();
+    }
+
+    /**
+     * Returns the next number as a long. Fractions are cut off, numbers out of its range fail.
+     */
+    public long nextLong() throws IOException {
+        String number = nextNumber();
+        try {
+            return Long.parseLong(number);
+        }
+        catch (NumberFormatException e) {
+            double value = parseDouble(number);
+            // Long.MAX_VALUE itself isn't a double, 2^63 is the first value past the range
+            if (!(value >= Long.MIN_VALUE && value < 0x1p63)) {
+                throw syntaxError(number + " is out of the range of a long");
+            }
+            return (long) value;
+        }
+    }
+
+    public int nextInt() throws IOException {
+        return (int) nextInRange(Integer.MIN_VALUE, Integer.MAX_VALUE, "an int");
+    }
+
+    public short nextShort() throws IOException {
+        return (short) nextInRange(Short.MIN_VALUE, Short.MAX_VALUE, "a short");
+    }
+
+    public byte nextByte() throws IOException {
+        return (byte) nextInRange(Byte.MIN_VALUE, Byte.MAX_VALUE, "a byte");
+    }
+
+    private long nextInRange(long min, long max, String type) throws IOException {
+        long value = nextLong();
+        if (value < min || value > max) {
+            throw syntaxError(value + " is out of the range of " + type);
+        }
+        return value;
+    }
+
+    public double nextDouble() throws IOException {
+        return parseDouble(nextNumber());
+    }
+
+    public float nextFloat() throws IOException {
+        double value = nextDouble();
+        if (Math.abs(value) > Float.MAX_VALUE && !Double.isInfinite(value)) {
+            throw syntaxError(value + " is out of the range of a float");
+        }
+        return (float) value;
+    }
+
+    private double parseDouble(String number) throws IOException {
+        // Quoted numbers aren't checked by the parser, and Java takes things like NaN or 1f which JSON doesn't
+        if (!isNumber(number)) {
+            throw syntaxError("Expected a number but was " + number);
+        }
+        return Double.parseDouble(number);
+    }
+
+    /**
+     * Whether the text is a number as JSON defines it: an optional minus, an integer without leading zeros, an
+     * optional fraction and an optional exponent.
+     */
+    static boolean isNumber(String text) {
+        int i = 0;
+        int length = text.length();
+        if (i < length && text.charAt(i) == '-') {
+            i++;
+        }
+        if (i < length && text.charAt(i) == '0') {
+            i++;
+        }
+        else {
+            int digits = skipDigits(text, i);
+            if (digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        if (i < length && text.charAt(i) == '.') {
+            int digits = skipDigits(text, ++i);
+            if (digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+                i++;
+            }
+            int digits = skipDigits(text, i);
+            if (digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        return i == length;
+    }
+
+    private static int skipDigits(String text, int i) {
+        while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        int p = peek();
+        if (p != BOOLEAN && p != STRING) {
+            throw syntaxError("Expected a boolean");
+        }
+        String value = nextString();
+        if (value.equals("true")) {
+            return true;
+        }
+        if (value.equals("false")) {
+            return false;
+        }
+        throw syntaxError("Expected a boolean but was " + value);
+    }
+
+    public void nextNull() throws IOException {
+        expect(NULL);
+        if (!readLiteral().equals("null")) {
+            throw syntaxError("Expected null");
+        }
+    }
+
+    /**
+     * Consumes a null if that's what comes next, returning whether it did.
+     */
+    public boolean nextIfNull() throws IOException {
+        if (peek() == NULL) {
+            nextNull();
+            return true;
+        }
+        return false;
+    }
+
+    public void skipValue() throws IOException {
+        int p = peek();
+        switch (p) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case NAME:
+                nextName();
+                skipValue();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            default:
+                nextString();
+        }
+    }
+
+    /**
+     * Reads the next value as a tree: objects become {@link LinkedHashMap}s, arrays {@link ArrayList}s and numbers
+     * {@link Long}s or {@link Double}s.
+     */
+    public Object readValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                Map<String, Object> map = new LinkedHashMap<>();
+                beginObject();
+                while (hasNext()) {
+                    String name = nextName();
+                    map.put(name, readValue());
+                }
+                endObject();
+                return map;
+            case BEGIN_ARRAY:
+                List<Object> list = new ArrayList<>();
+                beginArray();
+                while (hasNext()) {
+                    list.add(readValue());
+                }
+                endArray();
+                return list;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                String number = nextNumber();
+                if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                    try {
+                        return Long.parseLong(number);
+                    }
+                    catch (NumberFormatException e) {
+                        // Too big for a long, fall through to a double
+                    }
+                }
+                return parseDouble(number);
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw syntaxError("Expected a value");
+        }
+    }
+
+    private void expect(int token) throws IOException {
+        if (peek() != token) {
+            throw syntaxError("Unexpected token " + peeked + ", expected " + token);
+        }
+        peeked = NONE;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            int[] grown = new int[depth * 2];
+            System.arraycopy(stack, 0, grown, 0, depth);
+            stack = grown;
+        }
+        stack[depth++] = scope;
+    }
+
+    private String readString() throws IOException {
+        text.setLength(0);
+
+        while (true) {
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position++];
+                if (c == '"') {
+                    text.append(buffer, start, position - start - 1);
+                    return text.toString();
+                }
+                if (c == '\\') {
+                    text.append(buffer, start, position - start - 1);
+                    text.append(readEscape());
+                    start = position;
+                }
+            }
+            text.append(buffer, start, position - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = value << 4 | digit;
+                }
+                return (char) value;
+            case -1:
+                throw syntaxError("Unterminated escape");
+            default:
+                return (char) c;
+        }
+    }
+
+    private String readLiteral() throws IOException {
+        text.setLength(0);
+
+        while (true) {
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace(c)) {
+                    return text.toString();
+                }
+                text.append(c);
+                position++;
+            }
+            if (!fill()) {
+                return text.toString();
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Refills the buffer, keeping the last character so a single character can always be pushed back.
+     */
+    private boolean fill() throws IOException {
+        if (position > 0) {
+            bufferStart += position - 1;
+            buffer[0] = buffer[position - 1];
+            limit = 1;
+            position = 1;
+        }
+        else {
+            limit = 0;
+        }
+
+        int n = reader.read(buffer, limit, buffer.length - limit);
+        if (n <= 0) {
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message + " at position " + (bufferStart + position) + ", depth " + depth);
+    }
+}
@@ -0,0 +1,250 @@
+package com.ata.aws.lambda;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes JSON as UTF-8 straight to an {@link OutputStream} through a small buffer of its own, the counterpart of
+ * {@link JsonReader}. Separators are inserted automatically, callers only emit names and values. A writer can be
+ * reused for another document after {@link #reset(OutputStream)}.
+ */
+final class JsonWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+
+    // Whether a value was already written at each nesting level, so the next one needs a comma
+    private boolean[] nonEmpty = new boolean[32];
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    JsonWriter reset(OutputStream out) {
+        this.out = out;
+        this.count = 0;
+        this.depth = 0;
+        this.nonEmpty[0] = false;
+        this.afterName = false;
+        return this;
+    }
+
+    JsonWriter beginObject() throws IOException {
+        beforeValue();
+        put('{');
+        push();
+        return this;
+    }
+
+    JsonWriter endObject() throws IOException {
+        depth--;
+        put('}');
+        return this;
+    }
+
+    JsonWriter beginArray() throws IOException {
+        beforeValue();
+        put('[');
+        push();
+        return this;
+    }
+
+    JsonWriter endArray() throws IOException {
+        depth--;
+        put(']');
+        return this;
+    }
+
+    JsonWriter name(String name) throws IOException {
+        if (nonEmpty[depth]) {
+            put(',');
+        }
+        nonEmpty[depth] = true;
+        string(name);
+        put(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    JsonWriter value(long value) throws IOException {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            ascii(Long.toString(value));
+            return this;
+        }
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        if (count + 20 > buffer.length) {
+            drain();
+        }
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        while (value > 0);
+
+        // Digits were written least significant first, reverse them in place
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+        return this;
+    }
+
+    JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Not representable in JSON
+            return nullValue();
+        }
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            return value((long) value);
+        }
+        beforeValue();
+        ascii(Double.toString(value));
+        return this;
+    }
+
+    JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a number that is already formatted, ie. a {@link java.math.BigDecimal}.
+     */
+    JsonWriter rawNumber(String number) throws IOException {
+        beforeValue();
+        ascii(number);
+        return this;
+    }
+
+    JsonWriter nullValue() throws IOException {
+        beforeValue();
+        ascii("null");
+        return this;
+    }
+
+    /**
+     * Writes out whatever is buffered and flushes the underlying stream.
+     */
+    void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (nonEmpty[depth]) {
+            put(',');
+        }
+        nonEmpty[depth] = true;
+    }
+
+    private void push() {
+        if (++depth == nonEmpty.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(nonEmpty, 0, grown, 0, depth);
+            nonEmpty = grown;
+        }
+        nonEmpty[depth] = false;
+    }
+
+    private void string(String value) throws IOException {
+        put('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    put('\\');
+                    put(c);
+                }
+                else if (c == '\n') {
+                    put('\\');
+                    put('n');
+                }
+                else if (c == '\r') {
+                    put('\\');
+                    put('r');
+                }
+                else if (c == '\t') {
+                    put('\\');
+                    put('t');
+                }
+                else if (c < 0x20) {
+                    put('\\');
+                    put('u');
+                    put('0');
+                    put('0');
+                    put(HEX[c >> 4]);
+                    put(HEX[c & 0xF]);
+                }
+                else {
+                    put(c);
+                }
+            }
+            else if (c < 0x800) {
+                put(0xC0 | (c >> 6));
+                put(0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                put(0xF0 | (codePoint >> 18));
+                put(0x80 | ((codePoint >> 12) & 0x3F));
+                put(0x80 | ((codePoint >> 6) & 0x3F));
+                put(0x80 | (codePoint & 0x3F));
+            }
+            else if (Character.isSurrogate(c)) {
+                put('?');
+            }
+            else {
+                put(0xE0 | (c >> 12));
+                put(0x80 | ((c >> 6) & 0x3F));
+                put(0x80 | (c & 0x3F));
+            }
+        }
+        put('"');
+    }
+
+    private void ascii(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            put(value.charAt(i));
+        }
+    }
+
+    private void put(int b) throws IOException {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -1,308 +1,222 @@
 package com.ata.aws.lambda;
 
 import java.io.*;
-import java.lang.reflect.Method;
-import java.net.*;
 import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.amazonaws.services.lambda.runtime.*;
 
 public class LambdaBootstrap {
 
-    private static final String LAMBDA_VERSION_DATE = "2018-06-01";
-    private static final String LAMBDA_RUNTIME_URL_TEMPLATE = "http://{0}/{1}/runtime/invocation/next";
-    private static final String LAMBDA_INVOCATION_URL_TEMPLATE = "http://{0}/{1}/runtime/invocation/{2}/response";
-    private static final String LAMBDA_INIT_ERROR_URL_TEMPLATE = "http://{0}/{1}/runtime/init/error";
-    private static final String LAMBDA_ERROR_URL_TEMPLATE = "http://{0}/{1}/runtime/invocation/{2}/error";
+    private static final RingBufferLogger logger = RingBufferLogger.getInstance();
 
     public static void main(String args[]) {
 
+        StartupTracer.start();
+
+        // Handlers logging through LambdaRuntime share the runtime's buffered logger
+        LambdaRuntimeInternal.setLogger(logger.raw());
+
         String runtimeApi = getEnv("AWS_LAMBDA_RUNTIME_API");
         String taskRoot = getEnv("LAMBDA_TASK_ROOT");
         String handlerName = getEnv("_HANDLER");
 
+        // Lambda's response streaming has to be requested per response, so it's opt-in for the whole function
+        boolean streaming = "streaming".equalsIgnoreCase(getEnv("LAMBDA_RUNTIME_RESPONSE_MODE"));
+
+        // Set for a training run that records the classes to preload, see ClassPreloader
+        boolean recordPreload = "true".equalsIgnoreCase(getEnv("LAMBDA_RUNTIME_RECORD_PRELOAD"));
+
+        RuntimeApiClient client = new RuntimeApiClient(runtimeApi, streaming);
+        HandlerClassLoader classLoader;
         Class handlerClass = null;
-        RequestStreamHandler reqHandler;
+        Object reqHandler;
 
         try {
             // Get the handler class and method name from the Lambda Configuration in the format of <class>::<method>
+            int separator = handlerName.indexOf("::");
+            String className = separator < 0 ? handlerName : handlerName.substring(0, separator);
+            String methodName = separator < 0 ? null : handlerName.substring(separator + 2);
 
             // Find the Handler and Method on the classpath
-            handlerClass = getHandlerClass(taskRoot, handlerName);
-            reqHandler = (RequestStreamHandler) handlerClass.getConstructor().newInstance();
-
-            if(handlerClass == null) {
-                // Not much else to do handler can't be found.
-                throw new Exception("Handler not found");
-            }
-
+            classLoader = createClassLoader(taskRoot, recordPreload);
+            handlerClass = classLoader.loadClass(className);
+            StartupTracer.mark("loadClass");
+            reqHandler = HandlerResolver.resolve(handlerClass, methodName);
         }
         catch (Exception e) {
-            String initErrorUrl = MessageFormat.format(LAMBDA_INIT_ERROR_URL_TEMPLATE, runtimeApi, LAMBDA_VERSION_DATE);
-            postError(initErrorUrl, "Could not find handler method", "InitError");
+            postInitError(client, "Could not find handler method", "InitError");
             e.printStackTrace();
             return;
         }
 
-
-        String requestId;
-        String runtimeUrl = MessageFormat.format(LAMBDA_RUNTIME_URL_TEMPLATE, runtimeApi, LAMBDA_VERSION_DATE);
-
-        // Main event loop
-        while (true) {
-
-            // Get next Lambda Event
-            SimpleHttpResponse event = get(runtimeUrl);
-            final Map<String, List<String>> headers = event.getHeaders();
-            System.out.println("headers = " + headers.entrySet().stream().map(o-> o.getKey()).collect(Collectors.joining()));
-            requestId = getHeaderValue("Lambda-Runtime-Aws-Request-Id", headers);
-
-            try{
-                String invocationUrl = MessageFormat.format(LAMBDA_INVOCATION_URL_TEMPLATE, runtimeApi, LAMBDA_VERSION_DATE, requestId);
-                final HttpURLConnection connection = (HttpURLConnection) new URL(invocationUrl).openConnection();
-                connection.setDoOutput(true);
-                connection.setRequestMethod("POST");
-                connection.setDoOutput(true);
-                connection.connect();
-                final OutputStream outputStream = connection.getOutputStream();
-                // Invoke Handler Method
-                invoke(reqHandler, event.getBody(), outputStream, requestId);
-
-                // Post the results of Handler Invocation
-                post(connection);
-            }
-            catch (Exception e) {
-                String initErrorUrl = MessageFormat.format(LAMBDA_ERROR_URL_TEMPLATE, runtimeApi, LAMBDA_VERSION_DATE, requestId);
-                postError(initErrorUrl, "Invocation Error", "RuntimeError");
-                e.printStackTrace();
-            }
+        if (RuntimeCheckpoint.isRequested()) {
+            // Nothing may hold a connection when the checkpoint is taken, the restored runtime opens its own
+            client.close();
+            RuntimeCheckpoint.prime(reqHandler, taskRoot);
+            RuntimeCheckpoint.checkpoint();
+            runtimeApi = getEnv("AWS_LAMBDA_RUNTIME_API");
+            client = new RuntimeApiClient(runtimeApi, streaming);
         }
-    }
-
-    private static final String ERROR_RESPONSE_TEMPLATE = "'{'" +
-            "\"errorMessage\": \"{0}\"," +
-            "\"errorType\": \"{1}\"" +
-            "'}'";
-
-    private static void postError(String errorUrl, String errMsg, String errType) {
-        String error = MessageFormat.format(ERROR_RESPONSE_TEMPLATE, errMsg, errType);
-        post(errorUrl, error);
-    }
 
-    private static URL[] initClasspath(String taskRoot) throws MalformedURLException {
-        File cwd = new File(taskRoot);
+        // Only set when the runtime is run at build time, ie. to record a class data sharing archive
+        String trainingInvocations = getEnv("LAMBDA_RUNTIME_TRAINING_INVOCATIONS");
+        AtomicInteger remainingInvocations = trainingInvocations == null || Integer.parseInt(trainingInvocations) <= 0
+                ? null : new AtomicInteger(Integer.parseInt(trainingInvocations));
 
-        ArrayList<File> classPath = new ArrayList<>();
+        InvocationMetrics metrics = InvocationMetrics.fromEnv();
+        SlowInvocationRecorder slowInvocations = SlowInvocationRecorder.fromEnv();
 
-        // Add top level folders
-        classPath.add(new File(taskRoot));
+        // Registers as an extension, which is only possible before the first event is requested
+        TelemetryListener.startFromEnv(runtimeApi, metrics);
+        Runnable afterInvocation = recordPreload ? () -> writePreloadList(classLoader, taskRoot) : null;
 
-        // Find any Top level jars or jars in the lib folder
-        for(File f : cwd.listFiles((dir, name) -> name.endsWith(".jar") || name.equals("lib"))) {
+        String concurrency = getEnv("LAMBDA_RUNTIME_CONCURRENCY");
+        int workers = concurrency == null ? 1 : Math.max(1, Integer.parseInt(concurrency.trim()));
+        if (workers == 1) {
+            // Main event loop
+            new InvocationWorker(client, reqHandler, InvocationWatchdog.fromEnv(runtimeApi), metrics, slowInvocations, remainingInvocations, afterInvocation).run();
+            return;
+        }
 
-            if(f.getName().equals("lib") && f.isDirectory()) {
-                // Collect all Jars in /lib directory
-                for(File jar : f.listFiles((dir, name) -> name.endsWith(".jar"))) {
-                    classPath.add(jar);
+        // Several invocations at a time, each worker polls for its own events on its own connection
+        ThreadFactory threads = workerThreads("lambda-worker-");
+        CountDownLatch stopped = new CountDownLatch(1);
+        for (int i = 0; i < workers; i++) {
+            InvocationWorker worker = new InvocationWorker(i == 0 ? client : new RuntimeApiClient(runtimeApi, streaming), reqHandler,
+                    InvocationWatchdog.fromEnv(runtimeApi), metrics, slowInvocations, remainingInvocations, afterInvocation);
+            Thread thread = threads.newThread(() -> {
+                try {
+                    worker.run();
                 }
-            }
-            else {
-                // Add top level dirs and jar files
-                classPath.add(f);
-            }
+                finally {
+                    stopped.countDown();
+                }
+            });
+            thread.start();
         }
 
-        // Convert Files to URLs
-        ArrayList<URL> ret = new ArrayList<>();
-
-        for(File ff: classPath) {
-            ret.add(ff.toURI().toURL());
+        // The runtime ends with the first worker, which only stops once the Runtime API is gone or training is done
+        try {
+            stopped.await();
         }
-
-        return ret.toArray(new URL[ret.size()]);
-    }
-
-    private static Class getHandlerClass(String taskRoot, String className) throws Exception {
-
-        URL[] classPathUrls = initClasspath(taskRoot);
-        URLClassLoader cl = URLClassLoader.newInstance(classPathUrls);
-
-        return cl.loadClass(className);
-    }
-
-    private static Method getHandlerMethod(Class handlerClass, String methodName) throws Exception {
-
-        for (Method method : handlerClass.getMethods()) {
-
-            if(method.getName().equals(methodName)) {
-                return method;
-            }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-
-        return null;
     }
 
-    private static void invoke(RequestStreamHandler reqHandler, InputStream inputStream, OutputStream outputStream, String requestId) throws Exception {
-
-        reqHandler.handleRequest(inputStream, outputStream, new Context() {
-            @Override
-            public String getAwsRequestId() {
-                return requestId;
-            }
-
-            @Override
-            public String getLogGroupName() {
-                return null;
-            }
-
-            @Override
-            public String getLogStreamName() {
-                return null;
-            }
-
-            @Override
-            public String getFunctionName() {
-                return null;
-            }
-
-            @Override
-            public String getFunctionVersion() {
-                return null;
-            }
-
-            @Override
-            public String getInvokedFunctionArn() {
-                return null;
-            }
-
-            @Override
-            public CognitoIdentity getIdentity() {
-                return null;
-            }
-
-            @Override
-            public ClientContext getClientContext() {
-                return null;
-            }
-
-            @Override
-            public int getRemainingTimeInMillis() {
-                return 0;
-            }
-
-            @Override
-            public int getMemoryLimitInMB() {
-                return 0;
+    /**
+     * Threads for invocation workers and batch records, as set by {@code LAMBDA_RUNTIME_WORKER_THREADS}. Virtual
+     * threads unless platform threads are asked for or the JDK doesn't have them, which is looked up reflectively so
+     * the runtime still builds and runs on Java 11.
+     */
+    static ThreadFactory workerThreads(String namePrefix) {
+        String kind = getEnv("LAMBDA_RUNTIME_WORKER_THREADS");
+        if (!"platform".equalsIgnoreCase(kind)) {
+            try {
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+                return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            }
+            catch (ReflectiveOperationException | UnsupportedOperationException e) {
+                if ("virtual".equalsIgnoreCase(kind)) {
+                    logger.log("Virtual threads aren't available, using platform threads for the workers");
+                }
             }
+        }
 
-            @Override
-            public LambdaLogger getLogger() {
-                return null;
-            }
-        });
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, namePrefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
-    private static String getHeaderValue(String header, Map<String, List<String>> headers) {
-        List<String> values = headers.get(header);
-
-        // We don't expect any headers with multiple values, so for simplicity we'll just concat any that have more than one entry.
-        return String.join(",", values);
-    }
+    private static final String ERROR_RESPONSE_TEMPLATE = "'{'" +
+            "\"errorMessage\": \"{0}\"," +
+            "\"errorType\": \"{1}\"" +
+            "'}'";
 
-    private static String getEnv(String name) {
-        return System.getenv(name);
+    static String formatError(String errMsg, String errType) {
+        return MessageFormat.format(ERROR_RESPONSE_TEMPLATE, errMsg, errType);
     }
 
-    private static SimpleHttpResponse get(String remoteUrl) {
-
-        SimpleHttpResponse output = null;
+    static void postError(RuntimeApiClient client, String requestId, String errMsg, String errType) {
+        String error = formatError(errMsg, errType);
 
-        try{
-            URL url = new URL(remoteUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-
-            // Parse the HTTP Response
-            output = readResponse(conn);
+        try {
+            client.postError(requestId, errType, error);
         }
-        catch(IOException e) {
-            System.out.println("GET: " + remoteUrl);
-            e.printStackTrace();
+        catch (IOException ioe) {
+            logger.log("POST error: " + requestId);
+            ioe.printStackTrace();
         }
-
-        return output;
     }
 
-    private static SimpleHttpResponse post(final HttpURLConnection conn) {
-        SimpleHttpResponse output = null;
-
-        try{
+    private static void postInitError(RuntimeApiClient client, String errMsg, String errType) {
+        String error = formatError(errMsg, errType);
 
-            // We can probably skip this for speed because we don't really care about the response
-            output = readResponse(conn);
+        try {
+            client.postInitError(errType, error);
         }
-        catch(IOException ioe) {
-            System.out.println("POST: " + conn.getURL());
+        catch (IOException ioe) {
+            logger.log("POST init error");
             ioe.printStackTrace();
         }
-
-        return output;
     }
 
-    private static SimpleHttpResponse post(String remoteUrl, String body) {
-        SimpleHttpResponse output = null;
+    private static HandlerClassLoader createClassLoader(String taskRoot, boolean recordPreload) throws IOException {
 
-        try{
-            URL url = new URL(remoteUrl);
-            HttpURLConnection conn = (HttpURLConnection)url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-            setBody(conn, body);
-            conn.connect();
+        // Lists the class path and indexes its packages, from the deploy time index if there is one
+        HandlerClassLoader cl = HandlerClassLoader.create(new File(taskRoot), LambdaBootstrap.class.getClassLoader());
+        StartupTracer.mark("classLoader");
 
-            // We can probably skip this for speed because we don't really care about the response
-            output = readResponse(conn);
+        if (recordPreload) {
+            cl.startRecording();
         }
-        catch(IOException ioe) {
-            System.out.println("POST: " + remoteUrl);
-            ioe.printStackTrace();
+        else {
+            // Loads the classes of the preload list, if the deployment has one, on the otherwise idle CPUs of the init phase
+            String threads = getEnv("LAMBDA_RUNTIME_PRELOAD_THREADS");
+            ClassPreloader.start(cl, new File(taskRoot),
+                    threads == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads));
         }
-
-        return output;
+        return cl;
     }
 
-    private static SimpleHttpResponse readResponse(HttpURLConnection conn) throws IOException{
-
-        // Map Response Headers
-        HashMap<String, List<String>> headers = new HashMap<>();
+    private static int recordedClasses;
 
-        for(Map.Entry<String, List<String>> entry : conn.getHeaderFields().entrySet()) {
-            headers.put(entry.getKey(), entry.getValue());
+    private static synchronized void writePreloadList(HandlerClassLoader classLoader, String taskRoot) {
+        List<String> classes = classLoader.getRecordedClasses();
+        if (classes.size() == recordedClasses) {
+            return;
+        }
+        try {
+            ClassPreloader.write(new File(taskRoot), classes);
+            recordedClasses = classes.size();
+        }
+        catch (IOException e) {
+            logger.log("Could not write the preload list");
+            e.printStackTrace();
         }
-
-        return new SimpleHttpResponse(conn.getResponseCode(), headers, conn.getInputStream());
     }
 
-    private static void setBody(HttpURLConnection conn, String body) throws IOException{
-        OutputStream os = null;
-        OutputStreamWriter osw = null;
-
-        try{
-            os = conn.getOutputStream();
-            osw = new OutputStreamWriter(os, "UTF-8");
+    static void invoke(Object reqHandler, SimpleHttpResponse event, OutputStream outputStream, Context context) throws Exception {
 
-            osw.write(body);
-            osw.flush();
+        if (reqHandler instanceof ByteBufferRequestHandler) {
+            // Hand over a view of the pooled buffer the body was read into, no copy needed
+            ((ByteBufferRequestHandler) reqHandler).handleRequest(event.getReadOnlyBodyBuffer(), outputStream, context);
         }
-        finally {
-            osw.close();
-            os.close();
+        else {
+            ((RequestStreamHandler) reqHandler).handleRequest(event.getBody(), outputStream, context);
         }
     }
-}
 
+    private static String getEnv(String name) {
+        return System.getenv(name);
+    }
+}
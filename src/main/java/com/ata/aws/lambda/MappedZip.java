@@ -0,0 +1,294 @@
+package com.ata.aws.lambda;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A jar or zip file mapped into memory, with its central directory read into a name to entry table. Entries are
+ * read straight from the mapping, stored ones are copied and deflated ones inflated without any intermediate
+ * streams. Versioned entries of multi-release jars take the place of their base entry.
+ *
+ * The central directory is only read when the archive is first accessed.
+ */
+final class MappedZip {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final String VERSIONS = "META-INF/versions/";
+    private static final int RUNTIME_VERSION = Runtime.version().feature();
+
+    private static final ConcurrentLinkedQueue<Inflater> INFLATERS = new ConcurrentLinkedQueue<>();
+
+    private final File file;
+    private volatile MappedByteBuffer map;
+    // Offset of the central directory header of each entry
+    private Map<String, Integer> entries;
+    private Set<String> packages;
+
+    MappedZip(File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        MappedByteBuffer mapped = map;
+        if (mapped == null) {
+            synchronized (this) {
+                mapped = map;
+                if (mapped == null) {
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    }
+                    mapped.order(ByteOrder.LITTLE_ENDIAN);
+                    readCentralDirectory(mapped);
+                    map = mapped;
+                }
+            }
+        }
+        return mapped;
+    }
+
+    private void readCentralDirectory(ByteBuffer zip) throws IOException {
+        int end = findEnd(zip, file);
+        int count = zip.getShort(end + 10) & 0xFFFF;
+        long offset = zip.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 archives aren't supported: " + file);
+        }
+
+        Map<String, Integer> entries = new HashMap<>(count * 4 / 3 + 1);
+        Map<String, Integer> versioned = null;
+        Map<String, Integer> versions = null;
+        Set<String> packages = new HashSet<>();
+
+        int position = (int) offset;
+        for (int i = 0; i < count; i++) {
+            if (zip.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new ZipException("Corrupt central directory in " + file);
+            }
+            int nameLength = zip.getShort(position + 28) & 0xFFFF;
+            int extraLength = zip.getShort(position + 30) & 0xFFFF;
+            int commentLength = zip.getShort(position + 32) & 0xFFFF;
+            String name = utf8(zip, position + CENTRAL_HEADER_SIZE, nameLength);
+
+            if (!name.endsWith("/")) {
+                if (name.startsWith(VERSIONS)) {
+                    // META-INF/versions/<n>/<name>, the highest version the runtime supports wins
+                    int slash = name.indexOf('/', VERSIONS.length());
+                    int version = slash < 0 ? -1 : parseVersion(name, VERSIONS.length(), slash);
+                    if (version > 8 && version <= RUNTIME_VERSION) {
+                        String base = name.substring(slash + 1);
+                        if (versioned == null) {
+                            versioned = new HashMap<>();
+                            versions = new HashMap<>();
+                        }
+                        Integer previous = versions.get(base);
+                        if (previous == null || previous < version) {
+                            versions.put(base, version);
+                            versioned.put(base, position);
+                        }
+                    }
+                }
+                entries.put(name, position);
+                packages.add(packageOf(name));
+            }
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        this.entries = entries;
+        if (versioned != null && isMultiRelease(zip, entries)) {
+            entries.putAll(versioned);
+            for (String name : versioned.keySet()) {
+                packages.add(packageOf(name));
+            }
+        }
+        this.packages = packages;
+    }
+
+    /**
+     * A checksum of the central directory of a zip file, which changes with the name, size or CRC of any of its
+     * entries. The directory isn't parsed.
+     */
+    static long checksum(File file) throws IOException {
+        ByteBuffer zip;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            zip = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        zip.order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEnd(zip, file);
+        long size = zip.getInt(end + 12) & 0xFFFFFFFFL;
+        long offset = zip.getInt(end + 16) & 0xFFFFFFFFL;
+        if (offset + size > end) {
+            throw new ZipException("Corrupt central directory in " + file);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(zip.position((int) offset).limit((int) (offset + size)));
+        return crc.getValue();
+    }
+
+    private static int findEnd(ByteBuffer zip, File file) throws ZipException {
+        // The end record is followed by a comment of at most 64 KB
+        int lowest = Math.max(0, zip.limit() - END_SIZE - 0xFFFF);
+        for (int position = zip.limit() - END_SIZE; position >= lowest; position--) {
+            if (zip.getInt(position) == END_SIGNATURE) {
+                return position;
+            }
+        }
+        throw new ZipException("Not a zip file: " + file);
+    }
+
+    private static int parseVersion(String name, int start, int end) {
+        int version = 0;
+        for (int i = start; i < end; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9' || i - start > 4) {
+                return -1;
+            }
+            version = version * 10 + (c - '0');
+        }
+        return version;
+    }
+
+    private boolean isMultiRelease(ByteBuffer zip, Map<String, Integer> entries) throws IOException {
+        Integer manifest = entries.get("META-INF/MANIFEST.MF");
+        if (manifest == null) {
+            return false;
+        }
+        String text = new String(read(zip, manifest), StandardCharsets.UTF_8);
+        for (String line : text.split("\r?\n")) {
+            if (line.regionMatches(true, 0, "Multi-Release:", 0, 14) && line.substring(14).trim().equalsIgnoreCase("true")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String utf8(ByteBuffer zip, int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = zip.get(position + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static String packageOf(String name) {
+        int slash = name.lastIndexOf('/');
+        return slash < 0 ? "" : name.substring(0, slash);
+    }
+
+    /**
+     * The directories holding at least one entry, in the resource path form, ie. {@code com/amazonaws/services}.
+     */
+    Set<String> packages() throws IOException {
+        map();
+        return packages;
+    }
+
+    boolean contains(String name) throws IOException {
+        map();
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Returns the content of the entry, or null if there isn't one by that name.
+     */
+    byte[] read(String name) throws IOException {
+        ByteBuffer zip = map();
+        Integer entry = entries.get(name);
+        return entry == null ? null : read(zip, entry);
+    }
+
+    private byte[] read(ByteBuffer zip, int entry) throws IOException {
+        int method = zip.getShort(entry + 10) & 0xFFFF;
+        long compressedSize = zip.getInt(entry + 20) & 0xFFFFFFFFL;
+        long size = zip.getInt(entry + 24) & 0xFFFFFFFFL;
+        int local = zip.getInt(entry + 42);
+
+        if (zip.getInt(local) != LOCAL_SIGNATURE) {
+            throw new ZipException("Corrupt local header in " + file);
+        }
+        int data = local + LOCAL_HEADER_SIZE + (zip.getShort(local + 26) & 0xFFFF) + (zip.getShort(local + 28) & 0xFFFF);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new ZipException("Entry too large in " + file);
+        }
+
+        byte[] bytes = new byte[(int) size];
+        ByteBuffer source = zip.duplicate();
+        source.limit((int) (data + compressedSize)).position(data);
+
+        if (method == 0) {
+            source.get(bytes);
+            return bytes;
+        }
+        if (method != 8) {
+            throw new ZipException("Unsupported compression method " + method + " in " + file);
+        }
+
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setInput(source);
+            int count = 0;
+            while (count < bytes.length) {
+                int n = inflater.inflate(bytes, count, bytes.length - count);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += n;
+            }
+            if (count != bytes.length) {
+                throw new ZipException("Truncated entry in " + file);
+            }
+            return bytes;
+        }
+        catch (DataFormatException e) {
+            throw new ZipException("Corrupt entry in " + file + ": " + e.getMessage());
+        }
+        finally {
+            inflater.reset();
+            INFLATERS.offer(inflater);
+        }
+    }
+
+    URL url(String name) {
+        try {
+            return new URL("jar:" + file.toURI() + "!/" + name);
+        }
+        catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs a typed {@link RequestHandler} as a {@link RequestStreamHandler}. The binders for its input and output types
+ * are resolved when the handler is loaded, the event is then bound while it's read off the body stream and the
+ * result is written straight into the response stream.
+ */
+final class RequestHandlerAdapter implements RequestStreamHandler {
+
+    private final RequestHandler<Object, Object> handler;
+    private final JsonBinder<Object> input;
+    private final JsonBinder<Object> output;
+    private final ThreadLocal<JsonWriter> writers = ThreadLocal.withInitial(() -> new JsonWriter(null));
+
+    @SuppressWarnings("unchecked")
+    RequestHandlerAdapter(RequestHandler<?, ?> handler) {
+        this((RequestHandler<Object, Object>) handler,
+                JsonBinder.resolveTypeArguments(handler.getClass(), RequestHandler.class)[0],
+                JsonBinder.resolveTypeArguments(handler.getClass(), RequestHandler.class)[1]);
+    }
+
+    /**
+     * Adapts a handler method bound to a {@code RequestHandler}, with its declared input and output types. Methods
+     * taking no input have a null input type, the event isn't read for them.
+     */
+    RequestHandlerAdapter(RequestHandler<Object, Object> handler, Type inputType, Type outputType) {
+        this.handler = handler;
+        this.input = inputType == null ? null : JsonBinder.of(inputType);
+        this.output = JsonBinder.of(outputType);
+    }
+
+    @Override
+    public void handleRequest(InputStream in, OutputStream out, Context context) throws IOException {
+        // Event bodies are read in full before the handler runs, so available() is the size of the event
+        Object event = null;
+        if (input != null && in.available() > 0) {
+            event = input.read(new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        }
+
+        Object result = handler.handleRequest(event, context);
+
+        JsonWriter writer = writers.get().reset(out);
+        output.write(writer, result);
+        writer.flush();
+    }
+}
@@ -0,0 +1,215 @@
+package com.ata.aws.lambda;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The output stream handed to the handler. Output is collected into a fixed size chunk buffer and sent to the
+ * Runtime API with chunked transfer encoding every time the buffer fills up, so a response is never held in memory
+ * as a whole. Responses that fit into a single chunk are sent with a Content-Length instead.
+ *
+ * In streaming mode the invocation is posted with {@code Lambda-Runtime-Function-Response-Mode: streaming}, explicit
+ * flushes are sent straight away and errors raised after the first chunk went out are reported in the trailers.
+ */
+public final class ResponseStream extends OutputStream {
+
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] LAST_CHUNK = ascii("0\r\n");
+    private static final byte[] ERROR_TYPE_TRAILER = ascii("Lambda-Runtime-Function-Error-Type: ");
+    private static final byte[] ERROR_BODY_TRAILER = ascii("\r\nLambda-Runtime-Function-Error-Body: ");
+
+    private final RuntimeApiClient client;
+    private final HttpConnection connection;
+    private final boolean streaming;
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int count;
+    private boolean headersSent;
+    private String requestId;
+    private volatile boolean aborted;
+
+    ResponseStream(RuntimeApiClient client, HttpConnection connection, boolean streaming) {
+        this.client = client;
+        this.connection = connection;
+        this.streaming = streaming;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    ResponseStream reset(String requestId) {
+        this.requestId = requestId;
+        this.count = 0;
+        this.headersSent = false;
+        this.aborted = false;
+        return this;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            sendChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.length) {
+            // Large writes go out as their own chunk without being copied into the buffer first
+            sendChunk();
+            writeChunk(b, off, len);
+            return;
+        }
+        if (len > buffer.length - count) {
+            sendChunk();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * Writes the remaining content of the buffer, which is consumed by this.
+     */
+    void write(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            if (count == buffer.length) {
+                sendChunk();
+            }
+            int n = Math.min(source.remaining(), buffer.length - count);
+            source.get(buffer, count, n);
+            count += n;
+        }
+    }
+
+    /**
+     * Only streaming responses are flushed on request. In the default mode the buffer is sent when it is full, so
+     * handlers calling flush after every write don't turn the response into lots of tiny chunks.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (streaming) {
+            sendChunk();
+            checkAborted();
+            connection.flush();
+        }
+    }
+
+    /**
+     * Closing the stream is left to the runtime, which still has to terminate the request once the handler returns.
+     */
+    @Override
+    public void close() {
+    }
+
+    private void sendChunk() throws IOException {
+        if (count > 0) {
+            writeChunk(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        checkAborted();
+        if (!headersSent) {
+            client.writeResponseHeaders(requestId, streaming, -1);
+            headersSent = true;
+        }
+        connection.writeHex(len);
+        connection.write(CRLF);
+        connection.write(b, off, len);
+        connection.write(CRLF);
+    }
+
+    /**
+     * Completes the response after the handler returned. The request for the next event is pipelined behind it, the
+     * acknowledgement is checked when that event is read.
+     */
+    void finish() throws IOException {
+        if (!headersSent && !streaming) {
+            client.writeResponseHeaders(requestId, false, count);
+            connection.write(buffer, 0, count);
+            count = 0;
+        }
+        else {
+            sendChunk();
+            if (!headersSent) {
+                client.writeResponseHeaders(requestId, streaming, -1);
+                headersSent = true;
+            }
+            connection.write(LAST_CHUNK);
+            connection.write(CRLF);
+        }
+
+        client.pipelineNext("response", requestId);
+    }
+
+    /**
+     * Reports a handler failure for this response. Returns true if the error was delivered as part of the response
+     * itself, which is only possible for streaming responses that have already started. Otherwise the caller has to
+     * post it to the invocation error endpoint; a partially sent response is aborted by dropping the connection so the
+     * Runtime API never sees it as complete.
+     */
+    boolean fail(String errorType, String errorJson) {
+        count = 0;
+        if (!headersSent) {
+            return false;
+        }
+
+        if (streaming) {
+            try {
+                connection.write(LAST_CHUNK);
+                connection.write(ERROR_TYPE_TRAILER);
+                connection.writeAscii(errorType);
+                connection.write(ERROR_BODY_TRAILER);
+                connection.writeAscii(Base64.getEncoder().encodeToString(errorJson.getBytes(StandardCharsets.UTF_8)));
+                connection.write(CRLF);
+                connection.write(CRLF);
+
+                client.pipelineNext("response", requestId);
+                return true;
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        connection.close();
+        return false;
+    }
+
+    /**
+     * Rejects any further output for this response. Called by the {@link InvocationWatchdog} from its own thread once
+     * the invocation has been reported as timed out.
+     */
+    void abort() {
+        aborted = true;
+    }
+
+    private void checkAborted() throws InterruptedIOException {
+        if (aborted) {
+            throw new InterruptedIOException("Invocation " + requestId + " timed out");
+        }
+    }
+
+    /**
+     * Drops the response of an invocation which has already been reported by other means. A partially sent response
+     * is aborted by dropping the connection.
+     */
+    void abandon() {
+        count = 0;
+        if (headersSent) {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link LambdaLogger} which appends to a preallocated ring of fixed size slots instead of writing to stdout on the
+ * calling thread. A background thread drains the ring in large batched writes. Any number of threads can log
+ * concurrently: a message claims as many consecutive slots as it needs with a single CAS and is published slot by
+ * slot, so producers never take a lock and the writer never sees a partially written message.
+ *
+ * The runtime calls {@link #flush()} before posting each response, so no line is left behind when the environment
+ * is frozen between invocations.
+ */
+final class RingBufferLogger implements LambdaLogger {
+
+    private static final int SLOT_SIZE = 4096;
+    private static final int SLOT_COUNT = 256;
+    private static final int BATCH_SIZE = 64 * 1024;
+    private static final long WRITER_PARK_NANOS = 20_000_000L;
+
+    private static final class Holder {
+        static final RingBufferLogger INSTANCE = new RingBufferLogger(new FileOutputStream(FileDescriptor.out));
+    }
+
+    private final OutputStream out;
+    private final byte[] slots = new byte[SLOT_SIZE * SLOT_COUNT];
+    private final int[] slotLengths = new int[SLOT_COUNT];
+    private final AtomicLongArray published = new AtomicLongArray(SLOT_COUNT);
+    private final AtomicLong claimed = new AtomicLong();
+    private final Thread writer;
+    private final byte[] batch = new byte[BATCH_SIZE];
+    private volatile long released;
+    private volatile long written;
+
+    private final LambdaLogger raw = new LambdaLogger() {
+        @Override
+        public void log(String message) {
+            append(message, null, false);
+        }
+
+        @Override
+        public void log(byte[] message) {
+            append(null, message, false);
+        }
+    };
+
+    RingBufferLogger(OutputStream out) {
+        this.out = out;
+
+        // Slot i first holds sequence i, nothing is published until its sequence is stored
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            published.set(i, -1);
+        }
+
+        writer = new Thread(this::drainLoop, "lambda-logger");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "lambda-logger-flush"));
+    }
+
+    static RingBufferLogger getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * A view of this logger which doesn't terminate messages with a newline, matching {@code LambdaRuntime}'s logger.
+     */
+    LambdaLogger raw() {
+        return raw;
+    }
+
+    @Override
+    public void log(String message) {
+        append(message, null, true);
+    }
+
+    @Override
+    public void log(byte[] message) {
+        append(null, message, true);
+    }
+
+    private void append(String text, byte[] bytes, boolean newline) {
+        if (text == null && bytes == null) {
+            text = "null";
+        }
+
+        int length = (bytes != null ? bytes.length : utf8Length(text)) + (newline ? 1 : 0);
+        if (length == 0) {
+            return;
+        }
+
+        int slotCount = (length + SLOT_SIZE - 1) / SLOT_SIZE;
+        if (slotCount > SLOT_COUNT / 2) {
+            writeDirectly(text, bytes, newline);
+            return;
+        }
+
+        long first = claim(slotCount);
+        int position = (int) (first % SLOT_COUNT) * SLOT_SIZE;
+
+        // Claimed slots may wrap around the end of the ring, positions are taken modulo its size while copying
+        if (bytes != null) {
+            int head = Math.min(bytes.length, slots.length - position);
+            System.arraycopy(bytes, 0, slots, position, head);
+            System.arraycopy(bytes, head, slots, 0, bytes.length - head);
+            position = (position + bytes.length) % slots.length;
+        }
+        else {
+            position = encodeUtf8(text, position);
+        }
+        if (newline) {
+            slots[position] = '\n';
+        }
+
+        for (int i = 0; i < slotCount; i++) {
+            long sequence = first + i;
+            int slot = (int) (sequence % SLOT_COUNT);
+            slotLengths[slot] = Math.min(SLOT_SIZE, length - i * SLOT_SIZE);
+            published.set(slot, sequence);
+        }
+
+        // Wake the writer early once half the ring is in use rather than waiting for it to come around
+        if (first + slotCount - released > SLOT_COUNT / 2) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private long claim(int slotCount) {
+        while (true) {
+            long head = claimed.get();
+            if (head + slotCount - released > SLOT_COUNT) {
+                // Ring is full, the caller has to wait for the writer to catch up
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(50_000);
+                continue;
+            }
+            if (claimed.compareAndSet(head, head + slotCount)) {
+                return head;
+            }
+        }
+    }
+
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) {
+                length++;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes the text as UTF-8 straight into the ring, the byte count has to match {@link #utf8Length(String)}.
+     */
+    private int encodeUtf8(String text, int position) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                position = put(position, c);
+            }
+            else if (c < 0x800) {
+                position = put(position, 0xC0 | (c >> 6));
+                position = put(position, 0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                position = put(position, 0xF0 | (codePoint >> 18));
+                position = put(position, 0x80 | ((codePoint >> 12) & 0x3F));
+                position = put(position, 0x80 | ((codePoint >> 6) & 0x3F));
+                position = put(position, 0x80 | (codePoint & 0x3F));
+            }
+            else if (Character.isSurrogate(c)) {
+                position = put(position, '?');
+            }
+            else {
+                position = put(position, 0xE0 | (c >> 12));
+                position = put(position, 0x80 | ((c >> 6) & 0x3F));
+                position = put(position, 0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    private int put(int position, int b) {
+        slots[position] = (byte) b;
+        return (position + 1) % slots.length;
+    }
+
+    /**
+     * Messages too big for the ring are written on the calling thread, after everything logged before them.
+     */
+    private void writeDirectly(String text, byte[] bytes, boolean newline) {
+        flush();
+        synchronized (out) {
+            try {
+                out.write(bytes != null ? bytes : text.getBytes(StandardCharsets.UTF_8));
+                if (newline) {
+                    out.write('\n');
+                }
+            }
+            catch (IOException e) {
+                // NOTE: When actually running on AWS Lambda, an IOException would never happen
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Blocks until everything logged before this call has been written to stdout.
+     */
+    void flush() {
+        long target = claimed.get();
+        while (written < target) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(20_000);
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            long next = released;
+            int batchLength = 0;
+
+            while (published.get((int) (next % SLOT_COUNT)) == next) {
+                int slot = (int) (next % SLOT_COUNT);
+                int length = slotLengths[slot];
+                if (batchLength + length > batch.length) {
+                    write(batchLength);
+                    batchLength = 0;
+                }
+                System.arraycopy(slots, slot * SLOT_SIZE, batch, batchLength, length);
+                batchLength += length;
+                next++;
+
+                // Hand the slot back as soon as it has been copied out
+                released = next;
+            }
+
+            if (batchLength > 0) {
+                write(batchLength);
+            }
+            written = next;
+
+            if (next == released && published.get((int) (next % SLOT_COUNT)) != next) {
+                LockSupport.parkNanos(this, WRITER_PARK_NANOS);
+            }
+        }
+    }
+
+    private void write(int length) {
+        synchronized (out) {
+            try {
+                out.write(batch, 0, length);
+            }
+            catch (IOException e) {
+                // NOTE: When actually running on AWS Lambda, an IOException would never happen
+                e.printStackTrace();
+            }
+        }
+    }
+}
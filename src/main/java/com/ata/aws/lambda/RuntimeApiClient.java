@@ -0,0 +1,224 @@
+package com.ata.aws.lambda;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Client for the Lambda Runtime API which keeps one HTTP/1.1 connection open for the lifetime of the runtime.
+ * The request lines and headers are encoded once up front and reused for every invocation.
+ */
+public final class RuntimeApiClient implements Closeable {
+
+    private static final String LAMBDA_VERSION_DATE = "2018-06-01";
+
+    private final HttpConnection connection;
+    private final byte[] nextRequest;
+    private final byte[] invocationPrefix;
+    private final byte[] responseHeaders;
+    private final byte[] chunkedHeaders = ascii("\r\nTransfer-Encoding: chunked\r\n\r\n");
+    private final byte[] streamingHeaders = ascii("\r\nLambda-Runtime-Function-Response-Mode: streaming"
+            + "\r\nTrailer: Lambda-Runtime-Function-Error-Type, Lambda-Runtime-Function-Error-Body");
+    private final byte[] errorHeaders;
+    private final byte[] initErrorHeaders;
+    private final byte[] contentLengthHeader = ascii("\r\nContent-Length: ");
+    private final byte[] headersEnd = ascii("\r\n\r\n");
+
+    private final ResponseStream responseStream;
+    private final BufferPool bufferPool = BufferPool.shared();
+    private ByteBuffer eventBuffer;
+    private boolean nextRequested;
+    private String pendingAck;
+    private String pendingAckRequestId;
+    private long nextRequestedAt;
+    private long pollNanos;
+    private long bodyReadNanos;
+    private long ackNanos;
+
+    public RuntimeApiClient(String runtimeApi) {
+        this(runtimeApi, false);
+    }
+
+    /**
+     * @param streaming whether responses are posted using Lambda's streaming response mode
+     */
+    public RuntimeApiClient(String runtimeApi, boolean streaming) {
+        this.connection = new HttpConnection(runtimeApi);
+        this.responseStream = new ResponseStream(this, connection, streaming);
+
+        String host = "Host: " + runtimeApi + "\r\n";
+        String base = "/" + LAMBDA_VERSION_DATE + "/runtime/";
+
+        this.nextRequest = ascii("GET " + base + "invocation/next HTTP/1.1\r\n" + host + "\r\n");
+        this.invocationPrefix = ascii("POST " + base + "invocation/");
+        this.responseHeaders = ascii("/response HTTP/1.1\r\n" + host + "Content-Type: application/octet-stream");
+        this.errorHeaders = ascii("/error HTTP/1.1\r\n" + host + "Content-Type: application/json\r\nLambda-Runtime-Function-Error-Type: ");
+        this.initErrorHeaders = ascii("POST " + base + "init/error HTTP/1.1\r\n" + host + "Content-Type: application/json\r\nLambda-Runtime-Function-Error-Type: ");
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Blocks until the next event is available. If the kept-alive connection was dropped in the meantime the
+     * request is retried once on a fresh connection.
+     *
+     * The event body is read into a pooled off-heap buffer which is handed back to the pool on the following call,
+     * so neither the body stream nor the buffer of an event may be used after requesting the next one.
+     */
+    public SimpleHttpResponse next() throws IOException {
+        if (eventBuffer != null) {
+            bufferPool.release(eventBuffer);
+            eventBuffer = null;
+        }
+
+        try {
+            return doNext();
+        }
+        catch (IOException e) {
+            if (pendingAck != null) {
+                RingBufferLogger.getInstance().log("Acknowledgement of " + pendingAck + " for " + pendingAckRequestId + " lost: " + e);
+                pendingAck = null;
+            }
+            connection.close();
+            return doNext();
+        }
+    }
+
+    private SimpleHttpResponse doNext() throws IOException {
+        if (!nextRequested) {
+            connection.write(nextRequest);
+            connection.flush();
+            nextRequestedAt = System.nanoTime();
+        }
+        nextRequested = false;
+
+        // Responses arrive in request order, so a pipelined acknowledgement comes before the event
+        long waitStart = nextRequestedAt;
+        ackNanos = 0;
+        if (pendingAck != null) {
+            checkAcknowledged(pendingAck, pendingAckRequestId);
+            pendingAck = null;
+            waitStart = System.nanoTime();
+            ackNanos = waitStart - nextRequestedAt;
+        }
+
+        SimpleHttpResponse event = connection.readResponse(bufferPool);
+        eventBuffer = event.getBodyBuffer();
+
+        long headersReadAt = connection.getHeadersReadAt();
+        pollNanos = headersReadAt - waitStart;
+        bodyReadNanos = System.nanoTime() - headersReadAt;
+        return event;
+    }
+
+    /**
+     * Called once a response has been written in full. Instead of waiting for the Runtime API to acknowledge it, the
+     * request for the next event goes out right behind it on the same connection and the acknowledgement is only read,
+     * and checked, by the following {@link #next()}.
+     */
+    void pipelineNext(String what, String requestId) throws IOException {
+        pendingAck = what;
+        pendingAckRequestId = requestId;
+        connection.write(nextRequest);
+        connection.flush();
+        nextRequestedAt = System.nanoTime();
+        nextRequested = true;
+    }
+
+    /**
+     * How long the last {@link #next()} waited for the event to arrive, not counting the acknowledgement.
+     */
+    long getPollNanos() {
+        return pollNanos;
+    }
+
+    /**
+     * How long reading the body of the last event took once its headers arrived.
+     */
+    long getBodyReadNanos() {
+        return bodyReadNanos;
+    }
+
+    /**
+     * How long the Runtime API took to acknowledge the response pipelined before the last event, 0 if there was none.
+     */
+    long getAckNanos() {
+        return ackNanos;
+    }
+
+    /**
+     * Returns the stream the response for the given invocation is written to. The same stream is reused for every
+     * invocation, so it must not be used once the next event has been requested.
+     */
+    public ResponseStream openResponse(String requestId) {
+        return responseStream.reset(requestId);
+    }
+
+    /**
+     * Writes the request line and headers for posting a response, either with a known content length or, if the
+     * length is negative, using chunked transfer encoding.
+     */
+    void writeResponseHeaders(String requestId, boolean streaming, int contentLength) throws IOException {
+        connection.write(invocationPrefix);
+        connection.writeAscii(requestId);
+        connection.write(responseHeaders);
+        if (streaming) {
+            connection.write(streamingHeaders);
+        }
+        if (contentLength < 0) {
+            connection.write(chunkedHeaders);
+        }
+        else {
+            connection.write(contentLengthHeader);
+            connection.writeDecimal(contentLength);
+            connection.write(headersEnd);
+        }
+    }
+
+    public void postError(String requestId, String errorType, String errorJson) throws IOException {
+        connection.write(invocationPrefix);
+        connection.writeAscii(requestId);
+        connection.write(errorHeaders);
+        writeError(errorType, errorJson);
+
+        checkAcknowledged("error", requestId);
+    }
+
+    public void postInitError(String errorType, String errorJson) throws IOException {
+        connection.write(initErrorHeaders);
+        writeError(errorType, errorJson);
+
+        checkAcknowledged("init error", null);
+    }
+
+    private void writeError(String errorType, String errorJson) throws IOException {
+        byte[] body = errorJson.getBytes(StandardCharsets.UTF_8);
+
+        connection.writeAscii(errorType);
+        connection.write(contentLengthHeader);
+        connection.writeDecimal(body.length);
+        connection.write(headersEnd);
+        connection.write(body);
+        connection.flush();
+    }
+
+    void checkAcknowledged(String what, String requestId) throws IOException {
+        int status = connection.readHead();
+
+        if (status < 200 || status > 299) {
+            RingBufferLogger.getInstance().log("Runtime API rejected " + what + (requestId == null ? "" : " for " + requestId)
+                    + ": " + status + " " + new String(connection.readBody(), StandardCharsets.UTF_8));
+        }
+        else {
+            connection.skipBody();
+        }
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+}
@@ -0,0 +1,124 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.LambdaRuntimeInternal;
+import com.amazonaws.services.lambda.runtime.RuntimeHooks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Takes a checkpoint of the initialized runtime on JVMs with Coordinated Restore at Checkpoint, so environments can
+ * be started by restoring it instead of loading and initializing the handler all over again. Turned on with
+ * {@code LAMBDA_RUNTIME_CHECKPOINT=true} for a run at build time with {@code -XX:CRaCCheckpointTo}; the
+ * {@code bootstrap} script then restores from the checkpoint if the deployment has one.
+ *
+ * Before the checkpoint the handler can be primed with {@code LAMBDA_RUNTIME_PRIMING_EVENT}, so the classes and code
+ * paths of an invocation are loaded and compiled as well. The JDK's CRaC API is looked up reflectively, the runtime
+ * still builds and runs on JDKs without it.
+ */
+final class RuntimeCheckpoint {
+
+    private static final RingBufferLogger logger = RingBufferLogger.getInstance();
+
+    private RuntimeCheckpoint() {
+    }
+
+    static boolean isRequested() {
+        return "true".equalsIgnoreCase(System.getenv("LAMBDA_RUNTIME_CHECKPOINT"));
+    }
+
+    /**
+     * Invokes the handler with the priming event, if there is one, {@code LAMBDA_RUNTIME_PRIMING_INVOCATIONS} times.
+     * The responses are dropped and failures only logged.
+     */
+    static void prime(Object handler, String taskRoot) {
+        String eventFile = System.getenv("LAMBDA_RUNTIME_PRIMING_EVENT");
+        if (eventFile == null) {
+            return;
+        }
+        String invocations = System.getenv("LAMBDA_RUNTIME_PRIMING_INVOCATIONS");
+        int count = invocations == null ? 1 : Integer.parseInt(invocations.trim());
+
+        byte[] event;
+        try {
+            File file = new File(eventFile);
+            event = Files.readAllBytes((file.isAbsolute() ? file : new File(taskRoot, eventFile)).toPath());
+        }
+        catch (IOException e) {
+            logger.log("Could not read the priming event " + eventFile + ": " + e);
+            return;
+        }
+
+        InvocationContext context = (InvocationContext) ContextFactory.createContext();
+        for (int i = 0; i < count; i++) {
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.put("Lambda-Runtime-Aws-Request-Id", Collections.singletonList("priming-" + i));
+            headers.put("Lambda-Runtime-Deadline-Ms", Collections.singletonList(Long.toString(System.currentTimeMillis() + 900_000)));
+            SimpleHttpResponse response = new SimpleHttpResponse(200, headers, ByteBuffer.wrap(event));
+            try {
+                context.update(response);
+                LambdaBootstrap.invoke(handler, response, OutputStream.nullOutputStream(), context);
+            }
+            catch (Exception e) {
+                logger.log("Priming invocation " + i + " failed: " + e);
+            }
+        }
+        logger.flush();
+        StartupTracer.mark("priming");
+    }
+
+    /**
+     * Runs the before checkpoint hooks, takes the checkpoint and, once restored, refreshes what was read from the
+     * environment and runs the after restore hooks. Returns in the restored JVM, or in the original one if the
+     * checkpoint couldn't be taken.
+     */
+    static void checkpoint() {
+        boolean prepared = runHooks(LambdaRuntimeInternal.getBeforeCheckpointHooks(), "before checkpoint");
+        logger.flush();
+
+        if (prepared) {
+            try {
+                Class.forName("jdk.crac.Core").getMethod("checkpointRestore").invoke(null);
+                StartupTracer.mark("restore");
+            }
+            catch (ClassNotFoundException | NoSuchMethodException e) {
+                logger.log("This JVM can't take checkpoints, it needs the jdk.crac module");
+            }
+            catch (InvocationTargetException e) {
+                logger.log("Checkpoint failed: " + e.getCause());
+            }
+            catch (ReflectiveOperationException e) {
+                logger.log("Checkpoint failed: " + e);
+            }
+        }
+        else {
+            logger.log("A hook failed, no checkpoint taken");
+        }
+
+        // The restored JVM may run in another environment, with another Runtime API address and function settings
+        ContextFactory.refreshEnvironment();
+        runHooks(LambdaRuntimeInternal.getAfterRestoreHooks(), "after restore");
+    }
+
+    private static boolean runHooks(List<RuntimeHooks.Hook> hooks, String phase) {
+        boolean succeeded = true;
+        for (RuntimeHooks.Hook hook : hooks) {
+            try {
+                hook.run();
+            }
+            catch (Exception e) {
+                logger.log("Hook " + phase + " failed: " + e);
+                succeeded = false;
+            }
+        }
+        return succeeded;
+    }
+}
@@ -1,20 +1,55 @@
 package com.ata.aws.lambda;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
 public class SimpleHttpResponse {
 
-    private Integer responseCode;
+    private int responseCode;
     private Map<String, List<String>> headers;
     private InputStream body;
+    private ByteBuffer bodyBuffer;
+
+    // Set for the response of a connection, which is refilled for every response read and reads headers on demand
+    private final HttpConnection connection;
+    private ByteBufferInputStream bodyStream;
+    private ByteBuffer readOnlyBody;
 
 
     public SimpleHttpResponse(Integer responseCode, Map<String, List<String>> headers, InputStream body) {
         this.responseCode = responseCode;
         this.headers = headers;
         this.body = body;
+        this.connection = null;
+    }
+
+    public SimpleHttpResponse(Integer responseCode, Map<String, List<String>> headers, ByteBuffer bodyBuffer) {
+        this(responseCode, headers, new ByteBufferInputStream(bodyBuffer));
+        this.bodyBuffer = bodyBuffer;
+    }
+
+    SimpleHttpResponse(HttpConnection connection) {
+        this.connection = connection;
+    }
+
+    SimpleHttpResponse reset(int responseCode, ByteBuffer bodyBuffer) {
+        this.responseCode = responseCode;
+        this.headers = null;
+        if (bodyStream == null) {
+            bodyStream = new ByteBufferInputStream(bodyBuffer);
+        }
+        else {
+            bodyStream.setBuffer(bodyBuffer);
+        }
+        this.body = bodyStream;
+        if (this.bodyBuffer != bodyBuffer) {
+            this.readOnlyBody = null;
+        }
+        this.bodyBuffer = bodyBuffer;
+        return this;
     }
 
     public Integer getResponseCode() {
@@ -22,18 +57,79 @@ public class SimpleHttpResponse {
     }
 
     public Map<String, List<String>> getHeaders() {
+        if (headers == null && connection != null) {
+            headers = connection.headers();
+        }
         return headers;
     }
 
+    /**
+     * The first value of the header, or null if the response doesn't have it. Header names are case insensitive.
+     */
+    public String getHeader(String name) {
+        return getHeader(name, null);
+    }
+
+    /**
+     * Like {@link #getHeader(String)}, but returns the given string rather than a copy of it if the value is the same.
+     */
+    String getHeader(String name, String reuse) {
+        if (connection != null) {
+            return connection.header(name, reuse);
+        }
+        List<String> values = headers.get(name);
+        return values == null ? null : values.get(0);
+    }
+
+    /**
+     * The value of a numeric header, or the given default if the response doesn't have it.
+     */
+    long getHeaderLong(String name, long missing) throws IOException {
+        if (connection != null) {
+            return connection.headerLong(name, missing);
+        }
+        String value = getHeader(name);
+        if (value == null) {
+            return missing;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Malformed " + name + " header: " + value);
+        }
+    }
+
     public InputStream getBody() {
         return body;
     }
 
+    /**
+     * The buffer backing {@link #getBody()}, or null if the body wasn't read into a buffer.
+     */
+    public ByteBuffer getBodyBuffer() {
+        return bodyBuffer;
+    }
+
+    /**
+     * A read-only view of {@link #getBodyBuffer()}. Pooled buffers are handed out again and again, so the view of the
+     * last one is kept and rewound rather than created anew for every event.
+     */
+    ByteBuffer getReadOnlyBodyBuffer() {
+        if (readOnlyBody == null) {
+            readOnlyBody = bodyBuffer.asReadOnlyBuffer();
+        }
+        else {
+            readOnlyBody.limit(bodyBuffer.limit()).position(bodyBuffer.position());
+        }
+        return readOnlyBody;
+    }
+
     @Override
     public String toString() {
         return "SimpleHttpResponse{" +
                 "responseCode=" + responseCode +
-                ", headers=" + headers +
+                ", headers=" + getHeaders() +
                 ", body='" + body + '\'' +
                 '}';
     }
@@ -0,0 +1,276 @@
+package com.ata.aws.lambda;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps a Flight Recorder recording of CPU samples, allocations, garbage collections and lock contention running and
+ * saves the part of it covering an invocation that took longer than {@code LAMBDA_RUNTIME_SLOW_INVOCATION_MS}, or
+ * than the {@code LAMBDA_RUNTIME_SLOW_INVOCATION_PERCENTILE} of the invocations before it. Either one turns it on.
+ *
+ * A running recording can't be read, so it's kept in the JDK's repository under {@code /tmp}, capped in age and size,
+ * and a stopped copy of it is cut down to the chunks covering the invocation, and on Java 19 and later to the events
+ * within it. The recording goes to {@code LAMBDA_RUNTIME_SLOW_INVOCATION_OUTPUT}, a directory or {@code log} for
+ * gzipped, base64 encoded parts in the function's log. Saving happens off the invocation's thread, at most once per
+ * {@code LAMBDA_RUNTIME_SLOW_INVOCATION_COOLDOWN_SECONDS}.
+ *
+ * Needs the {@code jdk.jfr} module in the image, the classes using it are only loaded if it's there.
+ */
+final class SlowInvocationRecorder {
+
+    private static final RingBufferLogger logger = RingBufferLogger.getInstance();
+
+    private static final String DEFAULT_OUTPUT = "/tmp";
+    private static final long DEFAULT_COOLDOWN_SECONDS = 60;
+    // Invocations the percentile is taken over, it's recomputed after each such window
+    private static final int PERCENTILE_WINDOW = 200;
+    // How much of what led up to the invocation is kept, ie. a collection that started just before it
+    private static final long LEAD_IN_MILLIS = 1000;
+    private static final int LOG_PART_BYTES = 48 * 1024;
+
+    private final Flight flight;
+    private final long thresholdNanos;
+    private final double percentile;
+    private final Path outputDir;
+    private final long cooldownNanos;
+
+    private final LatencyHistogram window = new LatencyHistogram();
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private volatile long percentileNanos = Long.MAX_VALUE;
+    private final AtomicBoolean saving = new AtomicBoolean();
+    private volatile long nextSave = System.nanoTime();
+
+    private final ExecutorService saver = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lambda-jfr");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SlowInvocationRecorder(Flight flight, long thresholdNanos, double percentile, Path outputDir, long cooldownNanos) {
+        this.flight = flight;
+        this.thresholdNanos = thresholdNanos;
+        this.percentile = percentile;
+        this.outputDir = outputDir;
+        this.cooldownNanos = cooldownNanos;
+    }
+
+    /**
+     * Starts the recording configured through the environment and returns its recorder, or null if it's turned off
+     * or the image doesn't have Flight Recorder.
+     */
+    static SlowInvocationRecorder fromEnv() {
+        String threshold = System.getenv("LAMBDA_RUNTIME_SLOW_INVOCATION_MS");
+        String percentile = System.getenv("LAMBDA_RUNTIME_SLOW_INVOCATION_PERCENTILE");
+        if (isBlank(threshold) && isBlank(percentile)) {
+            return null;
+        }
+        if (!ModuleLayer.boot().findModule("jdk.jfr").isPresent()) {
+            logger.log("Slow invocations can't be recorded, the image doesn't have the jdk.jfr module");
+            return null;
+        }
+
+        String output = System.getenv("LAMBDA_RUNTIME_SLOW_INVOCATION_OUTPUT");
+        String cooldown = System.getenv("LAMBDA_RUNTIME_SLOW_INVOCATION_COOLDOWN_SECONDS");
+        long cooldownSeconds = isBlank(cooldown) ? DEFAULT_COOLDOWN_SECONDS : Long.parseLong(cooldown.trim());
+        try {
+            return new SlowInvocationRecorder(Flight.start(Duration.ofSeconds(Math.max(cooldownSeconds, 60))),
+                    isBlank(threshold) ? 0 : Long.parseLong(threshold.trim()) * 1_000_000L,
+                    isBlank(percentile) ? 0 : Double.parseDouble(percentile.trim()),
+                    "log".equals(output) ? null : Paths.get(isBlank(output) ? DEFAULT_OUTPUT : output.trim()),
+                    cooldownSeconds * 1_000_000_000L);
+        }
+        catch (IOException | ParseException | RuntimeException e) {
+            logger.log("Slow invocations can't be recorded: " + e);
+            return null;
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    /**
+     * Counts an invocation which just finished, and has the recording covering it saved if it was slow.
+     */
+    void record(String requestId, long durationNanos) {
+        if (percentile > 0) {
+            window.record(durationNanos);
+            if (windowCount.incrementAndGet() % PERCENTILE_WINDOW == 0) {
+                percentileNanos = window.snapshotAndReset().percentile(percentile);
+            }
+        }
+
+        long threshold = Math.max(thresholdNanos, percentile > 0 ? percentileNanos : 0);
+        long now = System.nanoTime();
+        if (durationNanos <= threshold || now - nextSave < 0 || !saving.compareAndSet(false, true)) {
+            return;
+        }
+        nextSave = now + cooldownNanos;
+
+        Instant end = Instant.now();
+        Instant start = end.minusNanos(durationNanos).minusMillis(LEAD_IN_MILLIS);
+        saver.execute(() -> {
+            try {
+                save(requestId, durationNanos / 1_000_000, start, end);
+            }
+            catch (Exception e) {
+                logger.log("Could not save the recording of slow invocation " + requestId + ": " + e);
+            }
+            finally {
+                saving.set(false);
+            }
+        });
+    }
+
+    private void save(String requestId, long durationMillis, Instant start, Instant end) throws Exception {
+        Path file = Files.createTempFile("lambda-slow-", ".jfr");
+        try {
+            if (!flight.copy(start, end, file)) {
+                logger.log("No recording of slow invocation " + requestId + " left");
+                return;
+            }
+            if (outputDir != null) {
+                Path target = outputDir.resolve("lambda-slow-" + requestId + ".jfr");
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                logger.log("{\"slowInvocation\":\"" + requestId + "\",\"durationMs\":" + durationMillis
+                        + ",\"recording\":\"" + target + "\"}");
+            }
+            else {
+                logParts(requestId, durationMillis, gzip(file));
+            }
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static byte[] gzip(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            Files.copy(file, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Logs the gzipped recording in parts well below the size limit of a log event, to be joined in order, decoded
+     * and unzipped again.
+     */
+    private static void logParts(String requestId, long durationMillis, byte[] recording) {
+        Base64.Encoder base64 = Base64.getEncoder();
+        int parts = (recording.length + LOG_PART_BYTES - 1) / LOG_PART_BYTES;
+        for (int part = 0; part < parts; part++) {
+            int offset = part * LOG_PART_BYTES;
+            byte[] data = Arrays.copyOfRange(recording, offset, Math.min(recording.length, offset + LOG_PART_BYTES));
+            logger.log("{\"slowInvocation\":\"" + requestId + "\",\"durationMs\":" + durationMillis
+                    + ",\"part\":" + (part + 1) + ",\"parts\":" + parts
+                    + ",\"jfrGzipBase64\":\"" + base64.encodeToString(data) + "\"}");
+        }
+    }
+
+    /**
+     * Kept apart so the {@code jdk.jfr} classes are only loaded when the module is there.
+     */
+    private static final class Flight {
+
+        private static final long MAX_SIZE_BYTES = 16 * 1024 * 1024;
+
+        private final Recording recording;
+
+        private Flight(Recording recording) {
+            this.recording = recording;
+        }
+
+        static Flight start(Duration maxAge) throws IOException, ParseException {
+            // The default settings stay around 1% of overhead, with allocations sampled rather than all recorded
+            Map<String, String> settings = Configuration.getConfiguration("default").getSettings();
+            settings.put("jdk.ObjectAllocationSample#enabled", "true");
+            if (FlightRecorder.getFlightRecorder().getEventTypes().stream()
+                    .noneMatch(type -> type.getName().equals("jdk.ObjectAllocationSample"))) {
+                // Before Java 16 there's no sampled allocation event, the allocations outside of TLABs are the next best
+                settings.put("jdk.ObjectAllocationOutsideTLAB#enabled", "true");
+            }
+
+            Recording recording = new Recording(settings);
+            recording.setName("lambda-slow-invocations");
+            recording.setToDisk(true);
+            recording.setMaxAge(maxAge);
+            recording.setMaxSize(MAX_SIZE_BYTES);
+            recording.start();
+            return new Flight(recording);
+        }
+
+        /**
+         * Writes what was recorded between start and end to the file, returns false if nothing of it is left.
+         */
+        boolean copy(Instant start, Instant end, Path file) throws IOException {
+            Recording copy = recording.copy(true);
+            try (InputStream chunks = copy.getStream(start, end)) {
+                if (chunks == null) {
+                    return false;
+                }
+                Files.copy(chunks, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            finally {
+                copy.close();
+            }
+            trim(file, start, end);
+            return true;
+        }
+
+        /**
+         * Drops the events outside of the window on Java 19 and later, which can write recordings. Looked up
+         * reflectively, before that the whole chunks are kept.
+         */
+        private static void trim(Path file, Instant start, Instant end) throws IOException {
+            Method write;
+            try {
+                write = RecordingFile.class.getMethod("write", Path.class, Predicate.class);
+            }
+            catch (NoSuchMethodException e) {
+                return;
+            }
+
+            Path trimmed = file.resolveSibling(file.getFileName() + ".trimmed");
+            Predicate<RecordedEvent> inWindow = event ->
+                    !event.getEndTime().isBefore(start) && !event.getStartTime().isAfter(end);
+            try (RecordingFile recording = new RecordingFile(file)) {
+                write.invoke(recording, trimmed, inWindow);
+            }
+            catch (InvocationTargetException e) {
+                Files.deleteIfExists(trimmed);
+                throw new IOException(e.getCause());
+            }
+            catch (ReflectiveOperationException e) {
+                Files.deleteIfExists(trimmed);
+                return;
+            }
+            Files.move(trimmed, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.ata.aws.lambda;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+
+/**
+ * Records how long each phase of a cold start takes, from JVM start up to the first response, and reports it once
+ * as an Embedded Metric Format record. Turned on with {@code LAMBDA_RUNTIME_TRACE_STARTUP=true}; when off, marking a
+ * phase is a single branch on a constant and the management classes are never loaded.
+ *
+ * Phases of the first invocation may be marked by several invocation workers at once, so marking synchronizes when
+ * tracing is on.
+ */
+final class StartupTracer {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getenv("LAMBDA_RUNTIME_TRACE_STARTUP"));
+
+    private static final int MAX_PHASES = 16;
+
+    private static final String[] phases = new String[MAX_PHASES];
+    private static final long[] phaseEnds = new long[MAX_PHASES];
+    private static int phaseCount;
+    private static long mainStart;
+    private static boolean reported;
+
+    private StartupTracer() {
+    }
+
+    /**
+     * Marks entering main, the end of the JVM's own startup.
+     */
+    static void start() {
+        if (ENABLED) {
+            mainStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Marks the end of the named phase, which started where the previous phase ended. Ignored once reported, so
+     * phases of the first invocation can be marked from the event loop.
+     */
+    static void mark(String phase) {
+        if (ENABLED) {
+            markPhase(phase);
+        }
+    }
+
+    private static synchronized void markPhase(String phase) {
+        if (!reported && phaseCount < MAX_PHASES) {
+            phases[phaseCount] = phase;
+            phaseEnds[phaseCount++] = System.nanoTime();
+        }
+    }
+
+    /**
+     * Logs the recorded phases, only the first call does anything.
+     */
+    static void report() {
+        if (ENABLED) {
+            reportPhases();
+        }
+    }
+
+    private static synchronized void reportPhases() {
+        if (reported) {
+            return;
+        }
+        reported = true;
+
+        // Uptime is in milliseconds and measured from the same instant as the start time, which lets us place
+        // JVM start on the nanoTime timeline
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        long now = System.nanoTime();
+        long jvmStart = now - runtime.getUptime() * 1_000_000L;
+
+        EmbeddedMetrics metrics = new EmbeddedMetrics()
+                .property("JvmStartTime", runtime.getStartTime())
+                .put("Startup.jvm", millis(mainStart - jvmStart), "Milliseconds");
+
+        long previous = mainStart;
+        for (int i = 0; i < phaseCount; i++) {
+            metrics.put("Startup." + phases[i], millis(phaseEnds[i] - previous), "Milliseconds");
+            previous = phaseEnds[i];
+        }
+        metrics.put("Startup.total", millis(previous - jvmStart), "Milliseconds");
+
+        RingBufferLogger.getInstance().log(metrics.toJson());
+    }
+
+    private static double millis(long nanos) {
+        return Math.max(0, nanos) / 1000 / 1000.0;
+    }
+}
@@ -0,0 +1,242 @@
+package com.ata.aws.lambda;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Receives the platform's telemetry after registering the runtime as an internal extension. Lambda posts batches of
+ * events to it once the response has gone out, so whatever is done with them stays off the invocation path: each
+ * {@code platform.report} is logged as an Embedded Metric Format record with the invocation's duration, billed
+ * duration and memory, and the runtime's own {@link InvocationMetrics} are flushed from here rather than by the
+ * workers.
+ *
+ * Turned on with {@code LAMBDA_RUNTIME_TELEMETRY}. If the Extensions API can't be reached, ie. when running outside
+ * of Lambda, the runtime carries on without it.
+ */
+final class TelemetryListener implements Runnable {
+
+    private static final RingBufferLogger logger = RingBufferLogger.getInstance();
+
+    private static final int DEFAULT_PORT = 4243;
+    private static final String LISTENER_HOST = "sandbox.localdomain";
+    private static final int MAX_ITEMS = 1000;
+    private static final int TIMEOUT_MS = 100;
+    // Lambda buffers at most 1 MB of telemetry per batch, anything much larger isn't from it
+    private static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+
+    private final ServerSocket server;
+    private final InvocationMetrics metrics;
+
+    private TelemetryListener(ServerSocket server, InvocationMetrics metrics) {
+        this.server = server;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts listening and subscribes to the Telemetry API, if turned on. Has to be called during init.
+     *
+     * @param metrics the runtime's metrics, flushed after each batch of telemetry, may be null
+     */
+    static void startFromEnv(String runtimeApi, InvocationMetrics metrics) {
+        if (!"true".equalsIgnoreCase(System.getenv("LAMBDA_RUNTIME_TELEMETRY"))) {
+            return;
+        }
+        String port = System.getenv("LAMBDA_RUNTIME_TELEMETRY_PORT");
+
+        ServerSocket server = null;
+        ExtensionApiClient client = new ExtensionApiClient(runtimeApi);
+        try {
+            server = new ServerSocket();
+            server.bind(new InetSocketAddress(port == null ? DEFAULT_PORT : Integer.parseInt(port.trim())));
+
+            client.register();
+            Thread listener = new Thread(new TelemetryListener(server, metrics), "lambda-telemetry");
+            listener.setDaemon(true);
+            listener.start();
+
+            client.subscribeTelemetry("http://" + LISTENER_HOST + ":" + server.getLocalPort(), MAX_ITEMS, TIMEOUT_MS);
+        }
+        catch (IOException e) {
+            logger.log("Telemetry API not available: " + e);
+            client.close();
+            if (server != null) {
+                try {
+                    server.close();
+                }
+                catch (IOException ignored) {
+                }
+            }
+            return;
+        }
+
+        Thread events = new Thread(client::awaitEvents, "lambda-extension");
+        events.setDaemon(true);
+        events.start();
+        StartupTracer.mark("telemetry");
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            }
+            catch (IOException e) {
+                return;
+            }
+            // Lambda keeps one connection open to deliver the batches one after the other
+            try (Socket connection = socket) {
+                connection.setTcpNoDelay(true);
+                serve(new BufferedInputStream(connection.getInputStream()), connection.getOutputStream());
+            }
+            catch (IOException | RuntimeException e) {
+                // Only this connection is lost, the listener keeps accepting
+                logger.log("Telemetry connection failed: " + e);
+            }
+        }
+    }
+
+    private void serve(InputStream in, OutputStream out) throws IOException {
+        byte[] ok = "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] badRequest = "HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        while (true) {
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+
+            long length = 0;
+            String badLength = null;
+            boolean close = false;
+            for (String header = readLine(in); header != null && !header.isEmpty(); header = readLine(in)) {
+                int colon = header.indexOf(':');
+                String name = colon < 0 ? header : header.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = colon < 0 ? "" : header.substring(colon + 1).trim();
+                if (name.equals("content-length")) {
+                    try {
+                        length = Long.parseLong(value);
+                    }
+                    catch (NumberFormatException e) {
+                        length = -1;
+                    }
+                    if (length < 0 || length > MAX_BATCH_BYTES) {
+                        badLength = value;
+                    }
+                }
+                else if (name.equals("connection")) {
+                    close = value.equalsIgnoreCase("close");
+                }
+            }
+
+            if (badLength != null) {
+                // The rest of the stream can't be framed without a length, so the connection is dropped
+                logger.log("Telemetry request with invalid Content-Length " + badLength);
+                out.write(badRequest);
+                out.flush();
+                return;
+            }
+
+            byte[] body = in.readNBytes((int) length);
+            if (body.length < length) {
+                throw new EOFException("Telemetry batch ended early");
+            }
+            out.write(ok);
+            out.flush();
+
+            if (requestLine.startsWith("POST ")) {
+                try {
+                    receive(JsonReader.parse(new String(body, StandardCharsets.UTF_8)));
+                }
+                catch (IOException | RuntimeException e) {
+                    logger.log("Malformed telemetry batch: " + e);
+                }
+            }
+            if (close) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handles a batch of telemetry events, all records of the batch are logged together.
+     */
+    private void receive(Object batch) {
+        if (batch instanceof List) {
+            StringBuilder records = new StringBuilder();
+            for (Object event : (List<?>) batch) {
+                if (event instanceof Map && "platform.report".equals(((Map<?, ?>) event).get("type"))) {
+                    Object record = ((Map<?, ?>) event).get("record");
+                    if (record instanceof Map) {
+                        if (records.length() > 0) {
+                            records.append('\n');
+                        }
+                        records.append(report((Map<?, ?>) record));
+                    }
+                }
+            }
+            if (records.length() > 0) {
+                logger.log(records.toString());
+            }
+        }
+
+        if (metrics != null) {
+            metrics.flushFromTelemetry();
+        }
+    }
+
+    private static String report(Map<?, ?> record) {
+        EmbeddedMetrics report = new EmbeddedMetrics();
+        Object values = record.get("metrics");
+        if (values instanceof Map) {
+            Map<?, ?> metrics = (Map<?, ?>) values;
+            put(report, metrics, "durationMs", "Platform.duration", "Milliseconds");
+            put(report, metrics, "billedDurationMs", "Platform.billedDuration", "Milliseconds");
+            put(report, metrics, "maxMemoryUsedMB", "Platform.maxMemoryUsed", "Megabytes");
+            put(report, metrics, "memorySizeMB", "Platform.memorySize", "Megabytes");
+            put(report, metrics, "initDurationMs", "Platform.initDuration", "Milliseconds");
+        }
+        if (record.get("requestId") != null) {
+            report.property("requestId", record.get("requestId"));
+        }
+        if (record.get("status") != null) {
+            report.property("status", record.get("status"));
+        }
+        return report.toJson();
+    }
+
+    private static void put(EmbeddedMetrics report, Map<?, ?> metrics, String field, String name, String unit) {
+        Object value = metrics.get(field);
+        if (value instanceof Number) {
+            report.put(name, ((Number) value).doubleValue(), unit);
+        }
+    }
+
+    /**
+     * Reads a line of the request head without its line break, or returns null at the end of the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b < 0 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,283 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.WarmCache;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The runtime's {@link WarmCache}, one per execution environment. Entries are kept in access order, so eviction takes
+ * the least recently used first. Invocations rarely overlap, a single lock keeps it simple; loading a value happens
+ * outside of it, with the callers waiting for a key that's being loaded sharing its future. A loader asking for its own
+ * key fails instead of waiting for itself.
+ *
+ * The heap budget is {@code LAMBDA_RUNTIME_CACHE_PERCENT} of the function's memory, at most a quarter of the heap.
+ * Byte values of 64 KB and more go off the heap while {@code LAMBDA_RUNTIME_CACHE_OFF_HEAP_PERCENT} of the memory
+ * isn't used up by them, which is off by default.
+ */
+final class WarmStateCache implements WarmCache {
+
+    private static final int DEFAULT_PERCENT = 10;
+    private static final int OFF_HEAP_MIN_BYTES = 64 * 1024;
+    // Rough size of an entry, its key and the map's node, and of values whose size can't be told
+    private static final long ENTRY_OVERHEAD = 96;
+    private static final long DEFAULT_WEIGHT = 256;
+    private static final Duration MAX_TTL = Duration.ofNanos(Long.MAX_VALUE);
+
+    private static final class Holder {
+        static final WarmStateCache SHARED = fromEnv();
+    }
+
+    private final long budgetBytes;
+    private final long offHeapBudgetBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Load> loading = new ConcurrentHashMap<>();
+    private long weightBytes;
+    private long offHeapWeightBytes;
+
+    WarmStateCache(long budgetBytes, long offHeapBudgetBytes) {
+        this.budgetBytes = budgetBytes;
+        this.offHeapBudgetBytes = offHeapBudgetBytes;
+    }
+
+    static WarmStateCache shared() {
+        return Holder.SHARED;
+    }
+
+    private static WarmStateCache fromEnv() {
+        long memoryBytes = BufferPool.memoryLimitFromEnv() * 1024L * 1024L;
+        long budget = Math.min(memoryBytes / 100 * percentFromEnv("LAMBDA_RUNTIME_CACHE_PERCENT", DEFAULT_PERCENT),
+                Runtime.getRuntime().maxMemory() / 4);
+        return new WarmStateCache(budget, memoryBytes / 100 * percentFromEnv("LAMBDA_RUNTIME_CACHE_OFF_HEAP_PERCENT", 0));
+    }
+
+    private static int percentFromEnv(String name, int missing) {
+        String percent = System.getenv(name);
+        return percent == null ? missing : Math.max(0, Math.min(100, Integer.parseInt(percent.trim())));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <V> V get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            remove(key);
+            return null;
+        }
+        // Cached bytes are shared, callers only get a view they can't write through
+        return (V) (entry.bytes ? ((ByteBuffer) entry.value).asReadOnlyBuffer() : entry.value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V> V get(String key, Duration ttl, Loader<V> loader) throws Exception {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        Load load = new Load();
+        Load inFlight = loading.putIfAbsent(key, load);
+        if (inFlight != null) {
+            if (inFlight.thread == Thread.currentThread()) {
+                throw new IllegalStateException("Recursive load of " + key);
+            }
+            return (V) await(inFlight);
+        }
+        try {
+            // Another caller may have loaded it between the lookup and claiming the key
+            value = get(key);
+            if (value == null) {
+                value = loader.load(key);
+                if (value != null) {
+                    put(key, value, ttl);
+                }
+            }
+            load.complete(value);
+            return value;
+        }
+        catch (Exception | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            loading.remove(key, load);
+        }
+    }
+
+    private static Object await(Load load) throws Exception {
+        try {
+            return load.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        }
+    }
+
+    @Override
+    public void put(String key, Object value, Duration ttl) {
+        put(key, value, weigh(value), ttl, false, false);
+    }
+
+    @Override
+    public void put(String key, Object value, long weightBytes, Duration ttl) {
+        put(key, value, weightBytes, ttl, false, false);
+    }
+
+    @Override
+    public void putBytes(String key, byte[] value, Duration ttl) {
+        if (value.length >= OFF_HEAP_MIN_BYTES && value.length <= offHeapBudgetBytes) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(value.length);
+            buffer.put(value).flip();
+            put(key, buffer, value.length, ttl, true, true);
+        }
+        else {
+            put(key, ByteBuffer.wrap(value.clone()), weigh(value), ttl, false, true);
+        }
+    }
+
+    @Override
+    public ByteBuffer getBytes(String key) {
+        Object value = get(key);
+        if (!(value instanceof ByteBuffer)) {
+            return null;
+        }
+        ByteBuffer buffer = (ByteBuffer) value;
+        return buffer.isReadOnly() ? buffer : buffer.asReadOnlyBuffer();
+    }
+
+    private synchronized void put(String key, Object value, long weightBytes, Duration ttl, boolean offHeap, boolean bytes) {
+        remove(key);
+
+        long weight = weightBytes + ENTRY_OVERHEAD + 2L * key.length();
+        // Entries which would push everything else out aren't worth caching
+        if (offHeap ? weightBytes > offHeapBudgetBytes : weight > budgetBytes) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        Entry entry = new Entry(value, offHeap ? ENTRY_OVERHEAD + 2L * key.length() : weight, offHeap ? weightBytes : 0,
+                ttl == null ? 0 : now + ttlNanos(ttl), bytes);
+        entries.put(key, entry);
+        this.weightBytes += entry.weight;
+        this.offHeapWeightBytes += entry.offHeapWeight;
+        evict(now);
+    }
+
+    /**
+     * Removes expired entries first and then the least recently used ones until both tiers are within their budget.
+     */
+    private void evict(long now) {
+        if (weightBytes <= budgetBytes && offHeapWeightBytes <= offHeapBudgetBytes) {
+            return;
+        }
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+            Entry entry = i.next();
+            if (entry.isExpired(now)) {
+                i.remove();
+                weightBytes -= entry.weight;
+                offHeapWeightBytes -= entry.offHeapWeight;
+            }
+        }
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext()
+                && (weightBytes > budgetBytes || offHeapWeightBytes > offHeapBudgetBytes); ) {
+            Entry entry = i.next();
+            if (weightBytes > budgetBytes || entry.offHeapWeight > 0) {
+                i.remove();
+                weightBytes -= entry.weight;
+                offHeapWeightBytes -= entry.offHeapWeight;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(String key) {
+        remove(key);
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            weightBytes -= entry.weight;
+            offHeapWeightBytes -= entry.offHeapWeight;
+        }
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        entries.clear();
+        weightBytes = 0;
+        offHeapWeightBytes = 0;
+    }
+
+    @Override
+    public synchronized long getWeightBytes() {
+        return weightBytes;
+    }
+
+    @Override
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    private static long ttlNanos(Duration ttl) {
+        // Durations past about 292 years don't fit, they're as good as none. Expiry is compared by the difference to
+        // now, which stays right when the sum overflows
+        return ttl.compareTo(MAX_TTL) >= 0 ? Long.MAX_VALUE : Math.max(1, ttl.toNanos());
+    }
+
+    private static long weigh(Object value) {
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) value;
+            return 48 + (buffer.isDirect() ? 0 : buffer.capacity());
+        }
+        return DEFAULT_WEIGHT;
+    }
+
+    /**
+     * The value of a key being loaded, and the thread loading it.
+     */
+    private static final class Load extends CompletableFuture<Object> {
+        private final Thread thread = Thread.currentThread();
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long weight;
+        private final long offHeapWeight;
+        private final long expiresAt;
+        // Cached by putBytes, handed out read-only
+        private final boolean bytes;
+
+        private Entry(Object value, long weight, long offHeapWeight, long expiresAt, boolean bytes) {
+            this.value = value;
+            this.weight = weight;
+            this.offHeapWeight = offHeapWeight;
+            this.expiresAt = expiresAt;
+            this.bytes = bytes;
+        }
+
+        private boolean isExpired(long now) {
+            return expiresAt != 0 && now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.ata.aws.lambda.bridge;
+
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Never loaded from this module. Its class file is defined again inside the class loader of the function code, where
+ * the lookup it hands out has full privileges, which {@code LambdaMetafactory} requires of the class it spins
+ * handler lambdas for.
+ */
+public final class LookupBridge {
+
+    private LookupBridge() {
+    }
+
+    public static MethodHandles.Lookup lookup() {
+        return MethodHandles.lookup();
+    }
+}
@@ -1,6 +1,7 @@
 module com.ata.lambda {
-    requires java.sql;
-    requires java.rmi;
+    requires java.management;
+    requires static jdk.management;
+    requires static jdk.jfr;
     exports com.amazonaws.services.lambda.runtime;
     exports com.ata.aws.lambda;
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.ata.aws.lambda;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    void roundsUpToSizeClasses() {
+        BufferPool pool = BufferPool.forMemoryLimit(128);
+        for (int capacity : new int[]{0, 1, 65536, 65537, 6 * 1024 * 1024, 8 * 1024 * 1024}) {
+            ByteBuffer buffer = pool.acquire(capacity);
+            assertTrue(buffer.isDirect());
+            assertEquals(0, buffer.position());
+            assertEquals(capacity, buffer.limit());
+            assertEquals(1, Integer.bitCount(buffer.capacity()), "capacity " + buffer.capacity());
+            assertTrue(buffer.capacity() >= Math.max(capacity, 65536));
+            assertTrue(buffer.capacity() < Math.max(2 * capacity, 65537));
+        }
+        assertEquals(9 * 1024 * 1024, pool.acquire(9 * 1024 * 1024).capacity());
+    }
+
+    @Test
+    void reusesReleasedBuffers() {
+        BufferPool pool = BufferPool.forMemoryLimit(1024);
+        ByteBuffer buffer = pool.acquire(100_000);
+        buffer.position(10);
+        pool.release(buffer);
+
+        ByteBuffer again = pool.acquire(70_000);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(70_000, again.limit());
+        assertNotSame(again, pool.acquire(70_000));
+    }
+
+    @Test
+    void dropsWhatItCannotPool() {
+        BufferPool pool = BufferPool.forMemoryLimit(1024);
+        ByteBuffer heap = ByteBuffer.allocate(65536);
+        pool.release(heap);
+        assertNotSame(heap, pool.acquire(65536));
+
+        ByteBuffer odd = ByteBuffer.allocateDirect(100_000);
+        pool.release(odd);
+        assertNotSame(odd, pool.acquire(100_000));
+
+        ByteBuffer huge = pool.acquire(9 * 1024 * 1024);
+        pool.release(huge);
+        assertNotSame(huge, pool.acquire(9 * 1024 * 1024));
+    }
+
+    @Test
+    void keepsWithinItsBudget() {
+        // 16 MB of memory gets the smallest budget, 1 MB
+        BufferPool pool = BufferPool.forMemoryLimit(16);
+        ByteBuffer first = pool.acquire(512 * 1024);
+        ByteBuffer second = pool.acquire(512 * 1024);
+        ByteBuffer small = pool.acquire(256 * 1024);
+        pool.release(first);
+        pool.release(second);
+        pool.release(small);
+
+        assertNotSame(small, pool.acquire(256 * 1024));
+        ByteBuffer reused = pool.acquire(512 * 1024);
+        assertTrue(reused == first || reused == second);
+
+        // Taking a buffer out makes room again
+        pool.release(small);
+        assertSame(small, pool.acquire(256 * 1024));
+    }
+
+    @Test
+    void limitsBuffersPerSizeClass() {
+        BufferPool pool = BufferPool.forMemoryLimit(1024);
+        ByteBuffer[] buffers = new ByteBuffer[5];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(65536);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+
+        // Four are kept and handed out last in, first out
+        for (int i = 3; i >= 0; i--) {
+            assertSame(buffers[i], pool.acquire(65536));
+        }
+        assertNotSame(buffers[4], pool.acquire(65536));
+    }
+}
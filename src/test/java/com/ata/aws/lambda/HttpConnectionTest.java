@@ -0,0 +1,207 @@
+package com.ata.aws.lambda;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the response parser against a server that answers every request with canned bytes, handed out in parts so
+ * lines, headers and chunks get split across reads.
+ */
+class HttpConnectionTest {
+
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: test\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private ServerSocket server;
+    private HttpConnection connection;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        connection = new HttpConnection("127.0.0.1:" + server.getLocalPort());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        connection.close();
+        server.close();
+    }
+
+    /**
+     * Accepts the connection and writes the responses, each in parts of the given size.
+     */
+    private CompletableFuture<Void> serve(int partSize, String... responses) {
+        return CompletableFuture.runAsync(() -> {
+            try (Socket socket = server.accept()) {
+                socket.setTcpNoDelay(true);
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                for (String response : responses) {
+                    // Wait for the request, so a response is never read ahead of the one before it
+                    in.readNBytes(REQUEST.length);
+                    byte[] bytes = response.getBytes(StandardCharsets.ISO_8859_1);
+                    for (int offset = 0; offset < bytes.length; offset += partSize) {
+                        out.write(bytes, offset, Math.min(partSize, bytes.length - offset));
+                        out.flush();
+                    }
+                }
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private int request() throws IOException {
+        connection.write(REQUEST);
+        connection.flush();
+        return connection.readHead();
+    }
+
+    @Test
+    void readsHeadersAndFixedLengthBody() throws IOException {
+        serve(7, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nX-Request-Id:  abc \t\r\nX-Number: 42\r\nX-Multi: 1\r\nx-multi: 2\r\n\r\nhello");
+
+        assertEquals(200, request());
+        assertEquals("abc", connection.header("x-request-id"));
+        assertEquals(42, connection.headerLong("X-NUMBER", -1));
+        assertEquals(-1, connection.headerLong("Missing", -1));
+        assertNull(connection.header("Missing"));
+        assertEquals(Arrays.asList("1", "2"), connection.headers().get("X-Multi"));
+        assertArrayEquals("hello".getBytes(StandardCharsets.US_ASCII), connection.readBody());
+    }
+
+    @Test
+    void reusesUnchangedHeaderValues() throws IOException {
+        serve(1024, "HTTP/1.1 200 OK\r\nX-Arn: arn:aws:lambda\r\nContent-Length: 0\r\n\r\n");
+
+        request();
+        String arn = "arn:aws:lambda";
+        assertSame(arn, connection.header("X-Arn", arn));
+        assertEquals("arn:aws:lambda", connection.header("X-Arn", "arn:aws:other"));
+    }
+
+    @Test
+    void readsChunkedBody() throws IOException {
+        serve(3, "HTTP/1.1 202 Accepted\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5;name=value\r\nhello\r\n1\r\n \r\nA\r\n0123456789\r\n0\r\nX-Trailer: t\r\n\r\n");
+
+        assertEquals(202, request());
+        assertEquals("hello 0123456789", new String(connection.readBody(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void readsResponsesOneAfterTheOther() throws IOException {
+        serve(1024,
+                "HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\none",
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\ntwo\r\n0\r\n\r\n",
+                "HTTP/1.1 204 No Content\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nthree");
+
+        BufferPool pool = BufferPool.forMemoryLimit(128);
+        for (String expected : Arrays.asList("one", "two", "", "three")) {
+            connection.write(REQUEST);
+            connection.flush();
+            SimpleHttpResponse response = connection.readResponse(pool);
+            ByteBuffer body = response.getBodyBuffer();
+            byte[] bytes = new byte[body.remaining()];
+            body.get(bytes);
+            assertEquals(expected, new String(bytes, StandardCharsets.US_ASCII));
+            pool.release(body);
+        }
+        assertTrue(connection.isOpen());
+    }
+
+    @Test
+    void readsBodiesLargerThanItsBuffer() throws IOException {
+        char[] body = new char[200_000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (char) ('a' + i % 26);
+        }
+        serve(65536, "HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n" + new String(body));
+
+        connection.write(REQUEST);
+        connection.flush();
+        SimpleHttpResponse response = connection.readResponse(BufferPool.forMemoryLimit(128));
+        assertEquals(200, response.getResponseCode().intValue());
+        ByteBuffer read = response.getBodyBuffer();
+        byte[] bytes = new byte[read.remaining()];
+        read.get(bytes);
+        assertEquals(new String(body), new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void closesWhenAsked() throws IOException {
+        serve(1024, "HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 2\r\n\r\nok");
+
+        request();
+        connection.skipBody();
+        assertFalse(connection.isOpen());
+        assertThrows(IOException.class, () -> connection.readHead());
+    }
+
+    @Test
+    void rejectsMalformedResponses() throws IOException {
+        serve(1024, "HTTP/1.1 2x0 OK\r\n\r\n");
+        assertThrows(IOException.class, this::request);
+    }
+
+    @Test
+    void rejectsMalformedNumbers() throws IOException {
+        serve(1024, "HTTP/1.1 200 OK\r\nContent-Length: 1e3\r\nX-Empty:\r\n\r\n");
+
+        request();
+        assertThrows(IOException.class, () -> connection.headerLong("Content-Length", -1));
+        assertThrows(IOException.class, () -> connection.headerLong("X-Empty", -1));
+        assertEquals(Collections.singletonList(""), connection.headers().get("X-Empty"));
+    }
+
+    @Test
+    void failsOnEarlyEndOfStream() throws IOException {
+        serve(1024, "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nshort");
+
+        request();
+        assertThrows(IOException.class, () -> connection.readBody());
+    }
+
+    @Test
+    void writesNumbers() throws IOException {
+        CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() -> {
+            try (Socket socket = server.accept()) {
+                return Arrays.asList(new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII).split(" "));
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        connection.writeDecimal(0);
+        connection.writeAscii(" ");
+        connection.writeDecimal(Long.MAX_VALUE);
+        connection.writeAscii(" ");
+        connection.writeHex(0);
+        connection.writeAscii(" ");
+        connection.writeHex(0xABCDEF);
+        connection.writeAscii(" ");
+        connection.writeHex(-1);
+        connection.flush();
+        connection.close();
+
+        assertEquals(Arrays.asList("0", "9223372036854775807", "0", "abcdef", "ffffffff"), received.join());
+    }
+}
@@ -0,0 +1,159 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.ata.aws.lambda.tools.LocalRuntimeApi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the event loop against a {@link LocalRuntimeApi}, the way it runs against the Runtime API: events go in over
+ * HTTP and the responses and errors the runtime posts come back out.
+ */
+class InvocationLoopTest {
+
+    public static class Greeting {
+        public String name;
+        public int times;
+    }
+
+    public static class GreetingHandler implements RequestHandler<Greeting, List<String>> {
+        @Override
+        public List<String> handleRequest(Greeting input, Context context) {
+            List<String> greetings = new ArrayList<>();
+            for (int i = 0; i < input.times; i++) {
+                greetings.add("hello " + input.name);
+            }
+            return greetings;
+        }
+    }
+
+    public static String upperCase(String input) {
+        return input.toUpperCase();
+    }
+
+    private LocalRuntimeApi api;
+    private RuntimeApiClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        api = new LocalRuntimeApi();
+        client = new RuntimeApiClient(api.getAddress());
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        api.close();
+    }
+
+    /**
+     * Runs the loop for as many invocations as there are events and returns what was posted for each.
+     */
+    private List<LocalRuntimeApi.Result> run(Object handler, byte[]... events) throws Exception {
+        List<CompletableFuture<LocalRuntimeApi.Result>> results = new ArrayList<>();
+        for (byte[] event : events) {
+            results.add(api.invoke(event));
+        }
+        Thread worker = new Thread(new InvocationWorker(client, handler, null, null, null, new AtomicInteger(events.length), null));
+        worker.start();
+        worker.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(worker.isAlive(), "the loop didn't stop after " + events.length + " invocations");
+
+        // The acknowledgement of the last response isn't waited for, so it may still be on its way
+        List<LocalRuntimeApi.Result> posted = new ArrayList<>();
+        for (CompletableFuture<LocalRuntimeApi.Result> result : results) {
+            posted.add(result.get(10, TimeUnit.SECONDS));
+        }
+        return posted;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(LocalRuntimeApi.Result result) {
+        return new String(result.getBody(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void echoesEventsOfEverySize() throws Exception {
+        // From an empty event up to Lambda's 6 MB payload limit, across the pool's size classes
+        int[] sizes = {0, 1, 100, 65535, 65537, 1024 * 1024, 6 * 1024 * 1024};
+        byte[][] events = new byte[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            events[i] = new byte[sizes[i]];
+            for (int j = 0; j < sizes[i]; j++) {
+                events[i][j] = (byte) ('a' + (i + j) % 26);
+            }
+        }
+
+        List<LocalRuntimeApi.Result> results = run((RequestStreamHandler) (in, out, context) -> in.transferTo(out), events);
+        for (int i = 0; i < events.length; i++) {
+            assertFalse(results.get(i).isError());
+            assertArrayEquals(events[i], results.get(i).getBody(), "event of " + sizes[i] + " bytes");
+        }
+    }
+
+    @Test
+    void postsHandlerFailuresAsErrors() throws Exception {
+        RequestStreamHandler handler = (in, out, context) -> {
+            if (in.read() == 'f') {
+                throw new IllegalStateException("failed");
+            }
+            out.write('1');
+        };
+
+        List<LocalRuntimeApi.Result> results = run(handler, bytes("fail"), bytes("ok"));
+        assertTrue(results.get(0).isError());
+        assertEquals("RuntimeError", results.get(0).getErrorType());
+        // The loop goes on with the next event
+        assertFalse(results.get(1).isError());
+        assertEquals("1", text(results.get(1)));
+    }
+
+    @Test
+    void bindsTypedHandlers() throws Exception {
+        Object handler = HandlerResolver.resolve(GreetingHandler.class, null);
+
+        List<LocalRuntimeApi.Result> results = run(handler, bytes("{\"name\":\"a\",\"times\":2}"), bytes("{\"times\":\"x\"}"));
+        assertEquals("[\"hello a\",\"hello a\"]", text(results.get(0)));
+        assertTrue(results.get(1).isError());
+    }
+
+    @Test
+    void bindsHandlerMethods() throws Exception {
+        Object handler = HandlerResolver.resolve(InvocationLoopTest.class, "upperCase");
+
+        assertEquals("\"ABC\"", text(run(handler, bytes("\"abc\"")).get(0)));
+    }
+
+    @Test
+    void refreshesTheContextForEveryEvent() throws Exception {
+        api.setTimeoutMillis(5000);
+        RequestStreamHandler handler = (in, out, context) -> out.write(bytes(context.getAwsRequestId() + " "
+                + context.getRemainingTimeInMillis() + " " + context.getInvokedFunctionArn()));
+
+        List<LocalRuntimeApi.Result> results = run(handler, new byte[0], new byte[0]);
+        String[] first = text(results.get(0)).split(" ");
+        String[] second = text(results.get(1)).split(" ");
+        assertNotEquals(first[0], second[0]);
+        for (String[] context : new String[][]{first, second}) {
+            int remaining = Integer.parseInt(context[1]);
+            assertTrue(remaining > 0 && remaining <= 5000, "remaining " + remaining);
+            assertTrue(context[2].startsWith("arn:aws:lambda:"), context[2]);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.ata.aws.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonBinderTest {
+
+    public enum Color { RED, GREEN }
+
+    public static class Item {
+        private String name;
+        private int count;
+        private Color color;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public Color getColor() {
+            return color;
+        }
+
+        public void setColor(Color color) {
+            this.color = color;
+        }
+    }
+
+    public static class Order {
+        public long id;
+        public boolean paid;
+        public double weight;
+        public float ratio;
+        public short lines;
+        public byte flags;
+        public char grade;
+        public BigDecimal total;
+        public BigInteger serial;
+        public byte[] signature;
+        public Item[] items;
+        public List<Item> history;
+        public Set<String> tags;
+        public Map<String, Integer> stock;
+        public Map<String, Object> extra;
+        public Order parent;
+    }
+
+    public static class Names {
+        private String url;
+        private String sourceARN;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getURL() {
+            return url;
+        }
+
+        public String getEventSourceArn() {
+            return sourceARN;
+        }
+
+        public void setEventSourceArn(String sourceARN) {
+            this.sourceARN = sourceARN;
+        }
+    }
+
+    public static class Handler implements RequestHandler<List<Item>, Map<String, Integer>> {
+        @Override
+        public Map<String, Integer> handleRequest(List<Item> input, Context context) {
+            return Collections.emptyMap();
+        }
+    }
+
+    private static final String ORDER = "{\"id\":9007199254740993,\"paid\":true,\"weight\":2.5,\"ratio\":0.25,\"lines\":3,"
+            + "\"flags\":-1,\"grade\":\"A\",\"total\":12.345,\"serial\":123456789012345678,\"signature\":\"AQID\","
+            + "\"items\":[{\"name\":\"a\",\"count\":2,\"color\":\"GREEN\"},null],\"history\":[{\"name\":\"b\"}],"
+            + "\"tags\":[\"x\",\"y\",\"x\"],\"stock\":{\"a\":1,\"b\":null},\"extra\":{\"n\":[1,{\"m\":true}]},"
+            + "\"parent\":{\"id\":1,\"parent\":null},\"unknown\":{\"ignored\":[1,2]}}";
+
+    @Test
+    void readsBeans() throws IOException {
+        Order order = JsonBinder.<Order>of(Order.class).read(JsonReader.of(ORDER));
+        assertOrder(order);
+    }
+
+    @Test
+    void bindsTreesLikeItReads() throws IOException {
+        Order order = JsonBinder.<Order>of(Order.class).fromTree(JsonReader.parse(ORDER));
+        assertOrder(order);
+    }
+
+    private static void assertOrder(Order order) {
+        assertEquals(9007199254740993L, order.id);
+        assertTrue(order.paid);
+        assertEquals(2.5, order.weight);
+        assertEquals(0.25f, order.ratio);
+        assertEquals((short) 3, order.lines);
+        assertEquals((byte) -1, order.flags);
+        assertEquals('A', order.grade);
+        assertEquals(new BigDecimal("12.345"), order.total);
+        assertEquals(new BigInteger("123456789012345678"), order.serial);
+        assertArrayEquals(new byte[]{1, 2, 3}, order.signature);
+        assertEquals(2, order.items.length);
+        assertEquals("a", order.items[0].getName());
+        assertEquals(2, order.items[0].getCount());
+        assertEquals(Color.GREEN, order.items[0].getColor());
+        assertNull(order.items[1]);
+        assertEquals("b", order.history.get(0).getName());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("x", "y")), order.tags);
+        assertEquals(Integer.valueOf(1), order.stock.get("a"));
+        assertTrue(order.stock.containsKey("b"));
+        assertEquals(Arrays.asList(1L, Collections.singletonMap("m", true)), order.extra.get("n"));
+        assertEquals(1, order.parent.id);
+        assertNull(order.parent.parent);
+    }
+
+    @Test
+    void writesWhatItReads() throws IOException {
+        JsonBinder<Order> binder = JsonBinder.of(Order.class);
+        Order order = binder.read(JsonReader.of(ORDER));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out);
+        binder.write(writer, order);
+        writer.flush();
+
+        assertOrder(binder.read(JsonReader.of(out.toString(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void namesPropertiesLikeIntrospector() throws IOException {
+        Names names = new Names();
+        names.setUrl("u");
+        names.setEventSourceArn("arn");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out);
+        JsonBinder.of(Names.class).write(writer, names);
+        writer.flush();
+
+        Map<?, ?> written = (Map<?, ?>) JsonReader.parse(out.toString(StandardCharsets.UTF_8));
+        assertEquals("u", written.get("url"));
+        assertEquals("u", written.get("URL"));
+        assertEquals("arn", written.get("eventSourceArn"));
+    }
+
+    @Test
+    void matchesNamesIgnoringCase() throws IOException {
+        String json = "{\"eventSourceARN\":\"arn\",\"URL\":\"u\"}";
+
+        Names read = JsonBinder.<Names>of(Names.class).read(JsonReader.of(json));
+        assertEquals("arn", read.getEventSourceArn());
+        assertEquals("u", read.getUrl());
+
+        Names bound = JsonBinder.<Names>of(Names.class).fromTree(JsonReader.parse(json));
+        assertEquals("arn", bound.getEventSourceArn());
+        assertEquals("u", bound.getUrl());
+    }
+
+    @Test
+    void keepsPrimitiveDefaultsForNull() throws IOException {
+        Item item = JsonBinder.<Item>of(Item.class).read(JsonReader.of("{\"name\":null,\"count\":null}"));
+        assertNull(item.getName());
+        assertEquals(0, item.getCount());
+    }
+
+    @Test
+    void rejectsValuesOutOfRange() {
+        JsonBinder<Order> binder = JsonBinder.of(Order.class);
+        for (String json : new String[]{"{\"lines\":40000}", "{\"flags\":300}", "{\"ratio\":1e300}", "{\"id\":1e19}",
+                "{\"paid\":1}", "{\"items\":{}}", "{\"id\":\"x\"}"}) {
+            assertThrows(IOException.class, () -> binder.read(JsonReader.of(json)), json);
+            assertThrows(IOException.class, () -> binder.fromTree(JsonReader.parse(json)), json);
+        }
+    }
+
+    @Test
+    void resolvesHandlerTypeArguments() {
+        Type[] types = JsonBinder.resolveTypeArguments(Handler.class, RequestHandler.class);
+        assertEquals(List.class, JsonBinder.rawType(types[0]));
+        assertEquals(Map.class, JsonBinder.rawType(types[1]));
+        assertEquals(Object.class, JsonBinder.resolveTypeArguments(RequestHandler.class, RequestHandler.class)[0]);
+    }
+}
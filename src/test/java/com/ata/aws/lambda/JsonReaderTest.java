@@ -0,0 +1,110 @@
+package com.ata.aws.lambda;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonReaderTest {
+
+    @Test
+    void readsTree() throws IOException {
+        Map<?, ?> tree = (Map<?, ?>) JsonReader.parse(
+                "{\"s\":\"a\\\"b\\\\\\u00e9\\n\",\"i\":12,\"l\":12345678901,\"d\":1.5e2,\"t\":true,\"n\":null,"
+                        + "\"a\":[1,[]],\"o\":{}}");
+
+        assertEquals("a\"b\\\u00e9\n", tree.get("s"));
+        assertEquals(12L, tree.get("i"));
+        assertEquals(12345678901L, tree.get("l"));
+        assertEquals(150.0, tree.get("d"));
+        assertEquals(Boolean.TRUE, tree.get("t"));
+        assertTrue(tree.containsKey("n"));
+        assertNull(tree.get("n"));
+        assertEquals(Arrays.asList(1L, Collections.emptyList()), tree.get("a"));
+        assertEquals(Collections.emptyMap(), tree.get("o"));
+    }
+
+    @Test
+    void readsTokens() throws IOException {
+        JsonReader reader = JsonReader.of(" { \"skip\" : {\"a\":[1,{\"b\":\"]\"}]}, \"n\" : -7 , \"names\" : [\"x\", \"y\"] } ");
+
+        reader.beginObject();
+        assertEquals("skip", reader.nextName());
+        reader.skipValue();
+        assertEquals("n", reader.nextName());
+        assertEquals(JsonReader.NUMBER, reader.peek());
+        assertEquals(-7, reader.nextInt());
+        assertEquals("names", reader.nextName());
+        reader.beginArray();
+        assertEquals("x", reader.nextString());
+        assertEquals("y", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        reader.endObject();
+        assertEquals(JsonReader.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    void readsValuesSpanningTheBuffer() throws IOException {
+        // Longer than the reader's buffer, with escapes and a surrogate pair around its end
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 8190; i++) {
+            value.append('x');
+        }
+        value.append("\"\\\uD83D\uDE00\u00e9");
+        for (int i = 0; i < 9000; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+
+        StringBuilder json = new StringBuilder("[\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            json.append(c == '"' || c == '\\' ? "\\" + c : String.valueOf(c));
+        }
+        json.append("\",12345]");
+
+        assertEquals(Arrays.asList(value.toString(), 12345L), JsonReader.parse(json.toString()));
+    }
+
+    @Test
+    void readsQuotedScalars() throws IOException {
+        JsonReader reader = JsonReader.of("[\"42\",\"true\",\"-1.5\",17]");
+        reader.beginArray();
+        assertEquals(42, reader.nextInt());
+        assertTrue(reader.nextBoolean());
+        assertEquals(-1.5, reader.nextDouble());
+        assertEquals("17", reader.nextString());
+        reader.endArray();
+    }
+
+    @Test
+    void checksTheRangeOfNumbers() throws IOException {
+        assertEquals(Long.MAX_VALUE, JsonReader.of("9223372036854775807").nextLong());
+        assertEquals(1, JsonReader.of("1.9").nextInt());
+        assertEquals((short) -32768, JsonReader.of("-32768").nextShort());
+
+        assertThrows(IOException.class, () -> JsonReader.of("5000000000").nextInt());
+        assertThrows(IOException.class, () -> JsonReader.of("40000").nextShort());
+        assertThrows(IOException.class, () -> JsonReader.of("128").nextByte());
+        assertThrows(IOException.class, () -> JsonReader.of("1e19").nextLong());
+        assertThrows(IOException.class, () -> JsonReader.of("1e300").nextFloat());
+    }
+
+    @Test
+    void rejectsMalformedJsonNamingThePosition() {
+        for (String json : new String[]{"{\"a\":1,}", "[1 2]", "{\"a\" 1}", "tru", "01", "1x", "NaN", "\"open", "{\"a\":1}}"}) {
+            IOException e = assertThrows(IOException.class, () -> {
+                JsonReader reader = JsonReader.of(json);
+                reader.readValue();
+                reader.peek();
+            }, json);
+            assertTrue(e.getMessage().contains("position"), json + ": " + e.getMessage());
+        }
+        assertThrows(IOException.class, () -> JsonReader.of("\"NaN\"").nextDouble());
+    }
+}
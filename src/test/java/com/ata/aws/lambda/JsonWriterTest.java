@@ -0,0 +1,79 @@
+package com.ata.aws.lambda;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonWriterTest {
+
+    @Test
+    void writesSeparators() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject()
+                .name("a").beginArray().value(1).value("x").beginObject().endObject().beginArray().endArray().endArray()
+                .name("b").nullValue()
+                .name("c").value(true)
+                .endObject();
+        writer.flush();
+
+        assertEquals("{\"a\":[1,\"x\",{},[]],\"b\":null,\"c\":true}", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void writesNumbers() throws IOException {
+        assertEquals("[0,-42,-9223372036854775808,9223372036854775807,1,1.5,-2.5E-7,1.0E20,null,null,0.1]",
+                write(writer -> writer.beginArray().value(0).value(-42).value(Long.MIN_VALUE).value(Long.MAX_VALUE)
+                        .value(1.0).value(1.5).value(-2.5e-7).value(1e20).value(Double.NaN).value(Double.POSITIVE_INFINITY)
+                        .rawNumber("0.1").endArray()));
+    }
+
+    @Test
+    void escapesStrings() throws IOException {
+        String value = "q\" b\\ n\n r\r t\t c\u0001 \u00e9 \u20ac \uD83D\uDE00 \uD800";
+        String json = write(writer -> writer.value(value));
+
+        assertEquals("\"q\\\" b\\\\ n\\n r\\r t\\t c\\u0001 \u00e9 \u20ac \uD83D\uDE00 ?\"", json);
+        assertEquals(value.replace('\uD800', '?'), JsonReader.parse(json));
+    }
+
+    @Test
+    void writesPastItsBuffer() throws IOException {
+        char[] chars = new char[20000];
+        Arrays.fill(chars, '\u00e9');
+        String value = new String(chars);
+
+        List<?> read = (List<?>) JsonReader.parse(write(writer -> writer.beginArray().value(value).value(value).endArray()));
+        assertEquals(Arrays.asList(value, value), read);
+    }
+
+    @Test
+    void startsOverAfterReset() throws IOException {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(first);
+        writer.beginArray().value(1);
+
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        writer.reset(second).beginArray().value(2).endArray().flush();
+        assertEquals("[2]", second.toString(StandardCharsets.UTF_8));
+        assertEquals(0, first.size());
+    }
+
+    private interface Document {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    private static String write(Document document) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out);
+        document.write(writer);
+        writer.flush();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package com.ata.aws.lambda;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void startsEmpty() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshotAndReset();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.percentile(99));
+    }
+
+    @Test
+    void countsSmallValuesExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(9, snapshot.getCount());
+        assertEquals(7, snapshot.getMax());
+        assertEquals(0, snapshot.percentile(0));
+        assertEquals(0, snapshot.percentile(20));
+        assertEquals(3, snapshot.percentile(50));
+        assertEquals(7, snapshot.percentile(100));
+    }
+
+    @Test
+    void keepsPercentilesClose() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ThreadLocalRandom.current().nextLong(1, 10_000_000_000L);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9}) {
+            long expected = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long actual = snapshot.percentile(percentile);
+            assertEquals(expected, actual, expected * 0.125, "p" + percentile);
+            assertTrue(actual <= snapshot.getMax());
+        }
+        assertEquals(snapshot.getMax(), snapshot.percentile(100), snapshot.getMax() * 0.125);
+    }
+
+    @Test
+    void neverReportsMoreThanTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // The midpoint of the bucket 1024 falls into is above it
+        histogram.record(1024);
+        assertEquals(1024, histogram.snapshotAndReset().percentile(50));
+
+        // The top bucket doesn't overflow
+        histogram.record(Long.MAX_VALUE);
+        long top = histogram.snapshotAndReset().percentile(50);
+        assertTrue(top > Long.MAX_VALUE / 8 * 7, String.valueOf(top));
+    }
+
+    @Test
+    void startsOverAfterASnapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5_000_000);
+        histogram.snapshotAndReset();
+        histogram.record(100);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(100, snapshot.getMax());
+    }
+}
@@ -0,0 +1,136 @@
+package com.ata.aws.lambda;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedZipTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the entries in order, names starting with {@code stored:} without compression.
+     */
+    private File zip(String name, Map<String, byte[]> entries) throws IOException {
+        File file = dir.resolve(name).toFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                boolean stored = entry.getKey().startsWith("stored:");
+                ZipEntry zipEntry = new ZipEntry(stored ? entry.getKey().substring(7) : entry.getKey());
+                // Fixed times, so the same entries always make the same bytes
+                zipEntry.setTime(0);
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(entry.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(zipEntry);
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    @Test
+    void readsStoredAndDeflatedEntries() throws IOException {
+        byte[] large = new byte[300_000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 251);
+        }
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("com/example/", new byte[0]);
+        entries.put("stored:com/example/A.class", bytes("stored"));
+        entries.put("com/example/sub/B.class", large);
+        entries.put("com/example/Empty.txt", new byte[0]);
+        entries.put("root.properties", bytes("a=b"));
+
+        MappedZip zip = new MappedZip(zip("classes.jar", entries));
+        assertArrayEquals(bytes("stored"), zip.read("com/example/A.class"));
+        assertArrayEquals(large, zip.read("com/example/sub/B.class"));
+        assertArrayEquals(new byte[0], zip.read("com/example/Empty.txt"));
+        assertArrayEquals(bytes("a=b"), zip.read("root.properties"));
+        assertNull(zip.read("com/example/Missing.class"));
+        assertTrue(zip.contains("com/example/A.class"));
+        assertFalse(zip.contains("com/example/"));
+        assertEquals(new HashSet<>(Arrays.asList("", "com/example", "com/example/sub")), zip.packages());
+    }
+
+    @Test
+    void prefersVersionedEntriesOfMultiReleaseJars() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("META-INF/MANIFEST.MF", bytes("Manifest-Version: 1.0\r\nMulti-Release: true\r\n\r\n"));
+        entries.put("a/A.class", bytes("base"));
+        entries.put("META-INF/versions/9/a/A.class", bytes("9"));
+        entries.put("META-INF/versions/11/a/A.class", bytes("11"));
+        entries.put("META-INF/versions/9999/a/A.class", bytes("future"));
+        entries.put("META-INF/versions/9/b/B.class", bytes("only versioned"));
+
+        MappedZip zip = new MappedZip(zip("multi.jar", entries));
+        assertArrayEquals(bytes("11"), zip.read("a/A.class"));
+        assertArrayEquals(bytes("only versioned"), zip.read("b/B.class"));
+        assertTrue(zip.packages().contains("b"));
+        assertArrayEquals(bytes("9"), zip.read("META-INF/versions/9/a/A.class"));
+    }
+
+    @Test
+    void ignoresVersionedEntriesOfOtherJars() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("META-INF/MANIFEST.MF", bytes("Manifest-Version: 1.0\r\n\r\n"));
+        entries.put("a/A.class", bytes("base"));
+        entries.put("META-INF/versions/11/a/A.class", bytes("11"));
+
+        MappedZip zip = new MappedZip(zip("plain.jar", entries));
+        assertArrayEquals(bytes("base"), zip.read("a/A.class"));
+    }
+
+    @Test
+    void checksumFollowsTheEntries() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("a/A.class", bytes("first"));
+        long first = MappedZip.checksum(zip("one.jar", entries));
+        assertEquals(first, MappedZip.checksum(zip("same.jar", entries)));
+
+        // Same name and size, different content
+        entries.put("a/A.class", bytes("other"));
+        assertTrue(first != MappedZip.checksum(zip("changed.jar", entries)));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        File file = dir.resolve("not.jar").toFile();
+        Files.write(file.toPath(), bytes("not a zip file at all"));
+
+        assertThrows(ZipException.class, () -> new MappedZip(file).read("a"));
+        assertThrows(ZipException.class, () -> MappedZip.checksum(file));
+    }
+
+    @Test
+    void namesPackages() {
+        assertEquals("com/example", MappedZip.packageOf("com/example/A.class"));
+        assertEquals("", MappedZip.packageOf("A.class"));
+    }
+}
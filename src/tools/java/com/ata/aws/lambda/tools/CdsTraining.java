@@ -0,0 +1,81 @@
+package com.ata.aws.lambda.tools;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Creates an AppCDS archive for a linked runtime image by running a training invocation of the runtime and its
+ * handler against a local Runtime API.
+ *
+ * On images of Java 13 or later a dynamic archive is dumped at exit, which covers the runtime, the JDK classes it
+ * uses and the handler's classes. Java 11 images can't archive classes of the handler's class loader, so there the
+ * loaded classes are recorded into a class list and a static archive is dumped from it instead.
+ *
+ * Usage: CdsTraining &lt;image dir&gt; &lt;archive&gt; &lt;task root&gt; &lt;handler&gt; [event file] [invocations]
+ */
+public final class CdsTraining {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: CdsTraining <image dir> <archive> <task root> <handler> [event file] [invocations]");
+            System.exit(2);
+        }
+
+        Path imageDir = Paths.get(args[0]);
+        Path archive = Paths.get(args[1]).toAbsolutePath();
+        TrainingRun training = new TrainingRun(imageDir, Paths.get(args[2]), args[3]);
+        if (args.length > 4 && !args[4].isEmpty()) {
+            training.event(Files.readAllBytes(Paths.get(args[4])));
+        }
+        if (args.length > 5) {
+            training.invocations(Integer.parseInt(args[5]));
+        }
+
+        Files.deleteIfExists(archive);
+        int version = imageFeatureVersion(imageDir);
+
+        if (version >= 13) {
+            // Dynamic archives sit on top of the JDK's base archive, which a jlink image doesn't have by default
+            if (!Files.exists(imageDir.resolve("lib/server/classes.jsa"))) {
+                exec(training.getJava().toString(), "-Xshare:dump");
+            }
+            training.jvmOption("-XX:ArchiveClassesAtExit=" + archive).run();
+        }
+        else {
+            Path classList = Files.createTempFile("lambda", ".classlist");
+            try {
+                training.jvmOption("-Xshare:off").jvmOption("-XX:DumpLoadedClassList=" + classList).run();
+                exec(training.getJava().toString(), "-Xshare:dump", "-XX:SharedClassListFile=" + classList,
+                        "-XX:SharedArchiveFile=" + archive, "--add-modules", "com.ata.lambda");
+            }
+            finally {
+                Files.deleteIfExists(classList);
+            }
+        }
+
+        System.out.println("Created " + archive + " (" + Files.size(archive) / 1024 + " KB) for a Java " + version + " image");
+    }
+
+    private static int imageFeatureVersion(Path imageDir) throws IOException {
+        Properties release = new Properties();
+        try (Reader reader = Files.newBufferedReader(imageDir.resolve("release"))) {
+            release.load(reader);
+        }
+
+        // JAVA_VERSION="11.0.3"
+        String version = release.getProperty("JAVA_VERSION", "\"11\"").replace("\"", "");
+        int dot = version.indexOf('.');
+        return Integer.parseInt(dot < 0 ? version : version.substring(0, dot));
+    }
+
+    private static void exec(String... command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IOException(String.join(" ", command) + " exited with " + process.exitValue());
+        }
+    }
+}
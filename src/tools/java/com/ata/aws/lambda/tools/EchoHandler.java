@@ -0,0 +1,20 @@
+package com.ata.aws.lambda.tools;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Handler that writes the event back as the response. Used whenever a run of the runtime needs a handler but the
+ * handler itself isn't what's being looked at.
+ */
+public class EchoHandler implements RequestStreamHandler {
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        input.transferTo(output);
+    }
+}
@@ -0,0 +1,111 @@
+package com.ata.aws.lambda.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.spi.ToolProvider;
+import java.util.stream.Stream;
+
+/**
+ * Links a runtime image for each of a set of profiles, each a jlink compression level with or without Java debug
+ * attributes, and reports the size of each image and how long it takes from starting it to the first response. The
+ * images only contain the JDK modules {@link ModuleDeps} finds the runtime and the handler need.
+ *
+ * A profile is written {@code name:compress[:strip]}, ie. {@code small:2:strip}.
+ *
+ * Usage: ImageProfiles &lt;output dir&gt; &lt;runtime jar&gt; &lt;task root&gt; &lt;handler&gt; &lt;jmods dir|-&gt;
+ * &lt;profile&gt;...
+ */
+public final class ImageProfiles {
+
+    private static final int STARTUP_RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 6) {
+            System.err.println("Usage: ImageProfiles <output dir> <runtime jar> <task root> <handler> <jmods dir|-> <name:compress[:strip]>...");
+            System.exit(2);
+        }
+
+        Path outputDir = Paths.get(args[0]);
+        Path runtimeJar = Paths.get(args[1]);
+        Path taskRoot = Paths.get(args[2]);
+        String handler = args[3];
+        Path jmods = args[4].equals("-") ? Paths.get(System.getProperty("java.home"), "jmods") : Paths.get(args[4]);
+
+        List<String> modules = new ArrayList<>();
+        modules.add("com.ata.lambda");
+        modules.addAll(ModuleDeps.compute(runtimeJar, taskRoot));
+        System.out.println("Modules: " + String.join(",", modules));
+
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 5; i < args.length; i++) {
+            String[] profile = args[i].split(":");
+            String name = profile[0];
+            boolean strip = profile.length > 2 && profile[2].equals("strip");
+            Path image = outputDir.resolve(name);
+
+            link(image, runtimeJar, jmods, modules, profile.length > 1 ? profile[1] : "2", strip);
+
+            long[] startups = new long[STARTUP_RUNS];
+            for (int run = 0; run < STARTUP_RUNS; run++) {
+                TrainingRun training = new TrainingRun(image, taskRoot, handler).invocations(1);
+                training.run();
+                startups[run] = training.getFirstResponseNanos();
+            }
+            Arrays.sort(startups);
+
+            rows.add(new String[]{name, (profile.length > 1 ? profile[1] : "2") + (strip ? " + strip" : ""),
+                    size(image) / 1024 + " KB", String.format("%.1f ms", startups[STARTUP_RUNS / 2] / 1e6)});
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-16s %-14s %12s %16s", "profile", "compress", "image size", "first response"));
+        for (String[] row : rows) {
+            System.out.println(String.format("%-16s %-14s %12s %16s", (Object[]) row));
+        }
+    }
+
+    private static void link(Path image, Path runtimeJar, Path jmods, List<String> modules, String compress, boolean strip) throws IOException {
+        delete(image);
+        ToolProvider jlink = ToolProvider.findFirst("jlink")
+                .orElseThrow(() -> new IOException("jlink isn't available, run with a JDK"));
+
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--module-path", runtimeJar + File.pathSeparator + jmods,
+                "--add-modules", String.join(",", modules),
+                "--output", image.toString(),
+                "--compress", compress, "--no-header-files", "--no-man-pages", "--strip-debug"));
+        if (strip) {
+            args.add("--strip-java-debug-attributes");
+        }
+
+        PrintWriter out = new PrintWriter(System.out, true);
+        if (jlink.run(out, out, args.toArray(new String[0])) != 0) {
+            throw new IOException("jlink failed for " + image);
+        }
+    }
+
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
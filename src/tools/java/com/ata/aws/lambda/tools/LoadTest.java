@@ -0,0 +1,412 @@
+package com.ata.aws.lambda.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives a runtime process against a {@link LocalRuntimeApi} with a mix of events and reports throughput, end to end
+ * latency percentiles, garbage collections and the bytes allocated per invocation. Given two runtimes it runs the same
+ * load against each in turn and prints the results side by side.
+ *
+ * A runtime is either a linked image, run with its own {@code bin/java}, or a module path holding the runtime module,
+ * run with the JVM running this tool. Events are picked at random by weight. With a rate, events are sent at that
+ * rate whether or not the runtime keeps up, so queueing shows up in the latency; without one the next event is only
+ * sent once the previous one was answered.
+ *
+ * Garbage collections and allocations come from the Embedded Metric Format records of the runtime, which is started
+ * with {@code LAMBDA_RUNTIME_METRICS_INTERVAL=1}. Allocations are only reported if the runtime's JVM has the
+ * {@code jdk.management} module.
+ *
+ * With {@code --max-bytes-per-invocation} the tool fails if any runtime allocated more per invocation than that, which
+ * the build uses to keep the steady state invocation loop from allocating, see the {@code allocationBudget} task.
+ *
+ * Usage: LoadTest [options] &lt;runtime&gt; [runtime to compare with]
+ */
+public final class LoadTest {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: LoadTest [options] <image dir or module path> [<image dir or module path>]",
+            "  --task-root <dir>         handler deployment, required",
+            "  --handler <handler>       value of _HANDLER, required",
+            "  --event <file>[:weight]   event to send, repeat for a mix, defaults to a small JSON event",
+            "  --rate <per second>       events sent per second, defaults to one at a time",
+            "  --duration <seconds>      length of the measurement, defaults to 30",
+            "  --warmup <seconds>        load sent before measuring, defaults to 10",
+            "  --jvm-option <option>     option for the runtime's JVM, repeatable",
+            "  --env <name>=<value>      environment variable for the runtime, repeatable",
+            "  --max-bytes-per-invocation <bytes>",
+            "                            fail if a runtime allocates more than this per invocation");
+
+    private static final Pattern METRIC = Pattern.compile("\"(Invocation\\.(?:count|gcCount|gcTime|allocatedBytes\\.avg))\":(\\d+)");
+
+    private final Path taskRoot;
+    private final String handler;
+    private final List<byte[]> events;
+    private final int[] cumulativeWeights;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final List<String> jvmOptions;
+    private final List<String> environment;
+
+    private LoadTest(Path taskRoot, String handler, List<byte[]> events, int[] cumulativeWeights, double rate,
+                     long durationSeconds, long warmupSeconds, List<String> jvmOptions, List<String> environment) {
+        this.taskRoot = taskRoot;
+        this.handler = handler;
+        this.events = events;
+        this.cumulativeWeights = cumulativeWeights;
+        this.rate = rate;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.jvmOptions = jvmOptions;
+        this.environment = environment;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path taskRoot = null;
+        String handler = null;
+        List<byte[]> events = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        double rate = 0;
+        long duration = 30;
+        long warmup = 10;
+        List<String> jvmOptions = new ArrayList<>();
+        List<String> environment = new ArrayList<>();
+        List<String> runtimes = new ArrayList<>();
+        long maxBytesPerInvocation = -1;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                runtimes.add(arg);
+                continue;
+            }
+            if (i + 1 == args.length) {
+                usage();
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--task-root":
+                    taskRoot = Paths.get(value).toAbsolutePath();
+                    break;
+                case "--handler":
+                    handler = value;
+                    break;
+                case "--event":
+                    int colon = value.lastIndexOf(':');
+                    boolean weighted = colon > 0 && value.substring(colon + 1).matches("\\d+");
+                    events.add(Files.readAllBytes(Paths.get(weighted ? value.substring(0, colon) : value)));
+                    weights.add(weighted ? Integer.parseInt(value.substring(colon + 1)) : 1);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--duration":
+                    duration = Long.parseLong(value);
+                    break;
+                case "--warmup":
+                    warmup = Long.parseLong(value);
+                    break;
+                case "--jvm-option":
+                    jvmOptions.add(value);
+                    break;
+                case "--env":
+                    environment.add(value);
+                    break;
+                case "--max-bytes-per-invocation":
+                    maxBytesPerInvocation = Long.parseLong(value);
+                    break;
+                default:
+                    usage();
+            }
+        }
+        if (taskRoot == null || handler == null || runtimes.isEmpty() || runtimes.size() > 2) {
+            usage();
+        }
+        if (events.isEmpty()) {
+            events.add("{\"message\":\"Hello World\"}".getBytes(StandardCharsets.UTF_8));
+            weights.add(1);
+        }
+
+        int[] cumulativeWeights = new int[weights.size()];
+        int total = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            total += weights.get(i);
+            cumulativeWeights[i] = total;
+        }
+
+        LoadTest test = new LoadTest(taskRoot, handler, events, cumulativeWeights, rate, duration, warmup, jvmOptions, environment);
+        List<Report> reports = new ArrayList<>();
+        for (String runtime : runtimes) {
+            System.out.println("Running " + (rate > 0 ? rate + " events per second" : "one event at a time") + " against " + runtime);
+            reports.add(test.run(Paths.get(runtime)));
+        }
+        print(runtimes, reports);
+
+        if (maxBytesPerInvocation >= 0) {
+            for (int i = 0; i < reports.size(); i++) {
+                Report report = reports.get(i);
+                if (!report.allocationsReported) {
+                    System.err.println(runtimes.get(i) + " didn't report its allocations, it needs the jdk.management module");
+                    System.exit(1);
+                }
+                if (report.allocatedBytesPerInvocation() > maxBytesPerInvocation) {
+                    System.err.println(runtimes.get(i) + " allocated " + report.allocatedBytesPerInvocation()
+                            + " bytes per invocation, the budget is " + maxBytesPerInvocation);
+                    System.exit(1);
+                }
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    private Report run(Path runtime) throws Exception {
+        Report report = new Report();
+        try (LocalRuntimeApi api = new LocalRuntimeApi()) {
+            Process process = start(runtime, api);
+            Thread metricsReader = readMetrics(process, report);
+            try {
+                CompletableFuture<LocalRuntimeApi.Result> first = api.invoke(events.get(0));
+                CompletableFuture.anyOf(first, api.getInitError(), process.onExit()).get(2, TimeUnit.MINUTES);
+                if (api.getInitError().isDone()) {
+                    throw new IOException("Runtime failed to initialize: " + api.getInitError().get());
+                }
+                if (first.isDone() && !first.get().isError()) {
+                    send(api, warmupNanos, null);
+                    report.resetMetrics();
+                    send(api, durationNanos, report);
+
+                    // The runtime only logs its metrics after an invocation, so one more makes it flush the last interval
+                    Thread.sleep(1100);
+                    api.invoke(events.get(0)).get(1, TimeUnit.MINUTES);
+                    Thread.sleep(200);
+                }
+                else {
+                    throw new IOException("The first invocation failed, check the handler");
+                }
+            }
+            finally {
+                process.destroy();
+                process.waitFor(10, TimeUnit.SECONDS);
+                metricsReader.join(1000);
+            }
+        }
+        return report;
+    }
+
+    private Process start(Path runtime, LocalRuntimeApi api) throws IOException {
+        List<String> command = new ArrayList<>();
+        File java = runtime.resolve("bin").resolve("java").toFile();
+        if (java.canExecute()) {
+            command.add(java.getPath());
+            command.addAll(jvmOptions);
+        }
+        else {
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(jvmOptions);
+            command.add("-p");
+            command.add(runtime.toString());
+        }
+        command.add("-m");
+        command.add(TrainingRun.MAIN_MODULE);
+
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        builder.environment().put("AWS_LAMBDA_RUNTIME_API", api.getAddress());
+        builder.environment().put("LAMBDA_TASK_ROOT", taskRoot.toString());
+        builder.environment().put("_HANDLER", handler);
+        builder.environment().put("LAMBDA_RUNTIME_METRICS_INTERVAL", "1");
+        for (String variable : environment) {
+            int equals = variable.indexOf('=');
+            builder.environment().put(variable.substring(0, equals), variable.substring(equals + 1));
+        }
+        return builder.start();
+    }
+
+    private static Thread readMetrics(Process process, Report report) {
+        Thread thread = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    if (line.startsWith("{\"_aws\"") && line.contains("\"Invocation.count\"")) {
+                        report.addMetrics(line);
+                    }
+                }
+            }
+            catch (IOException e) {
+                // The process is gone
+            }
+        }, "runtime-output");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Sends events for the given time, recording their latencies into the report if there is one.
+     */
+    private void send(LocalRuntimeApi api, long nanos, Report report) throws Exception {
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        long end = start + nanos;
+        long sent = 0;
+        List<CompletableFuture<?>> outstanding = new ArrayList<>();
+
+        for (long now = start; now < end; now = System.nanoTime()) {
+            byte[] event = pick(random);
+            long sentAt = System.nanoTime();
+            CompletableFuture<LocalRuntimeApi.Result> result = api.invoke(event);
+            if (report != null) {
+                result.whenComplete((r, t) -> report.record(System.nanoTime() - sentAt, t != null || r.isError()));
+            }
+            sent++;
+
+            if (rate > 0) {
+                outstanding.add(result);
+                long next = start + (long) (sent * 1e9 / rate);
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            else {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        }
+
+        CompletableFuture.allOf(outstanding.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.MINUTES);
+        if (report != null) {
+            report.elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    private byte[] pick(Random random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return events.get(i);
+            }
+        }
+        return events.get(events.size() - 1);
+    }
+
+    private static void print(List<String> runtimes, List<Report> reports) {
+        StringBuilder table = new StringBuilder();
+        row(table, "", runtimes.toArray(new String[0]));
+        row(table, "invocations", reports.stream().map(r -> Long.toString(r.count())).toArray(String[]::new));
+        row(table, "errors", reports.stream().map(r -> Long.toString(r.errors.get())).toArray(String[]::new));
+        row(table, "throughput /s", reports.stream().map(r -> String.format("%.1f", r.count() * 1e9 / r.elapsedNanos)).toArray(String[]::new));
+        for (double percentile : new double[]{50, 99, 99.9}) {
+            row(table, "p" + (percentile == (long) percentile ? Long.toString((long) percentile) : Double.toString(percentile)) + " ms",
+                    reports.stream().map(r -> String.format("%.3f", r.percentile(percentile) / 1e6)).toArray(String[]::new));
+        }
+        row(table, "max ms", reports.stream().map(r -> String.format("%.3f", r.percentile(100) / 1e6)).toArray(String[]::new));
+        row(table, "gc count", reports.stream().map(r -> Long.toString(r.gcCount)).toArray(String[]::new));
+        row(table, "gc time ms", reports.stream().map(r -> Long.toString(r.gcMillis)).toArray(String[]::new));
+        row(table, "bytes/invocation", reports.stream()
+                .map(r -> r.allocationsReported ? Long.toString(r.allocatedBytesPerInvocation()) : "n/a").toArray(String[]::new));
+        System.out.print(table);
+    }
+
+    private static void row(StringBuilder table, String name, String... values) {
+        table.append(String.format("%-18s", name));
+        for (String value : values) {
+            table.append(String.format(" %24s", value.length() > 24 ? "..." + value.substring(value.length() - 21) : value));
+        }
+        table.append('\n');
+    }
+
+    private static final class Report {
+
+        private long[] latencies = new long[1 << 16];
+        private int count;
+        private final AtomicLong errors = new AtomicLong();
+        private long elapsedNanos;
+
+        // Summed from the runtime's metric records
+        private long metricInvocations;
+        private long gcCount;
+        private long gcMillis;
+        private long allocatedBytes;
+        private boolean allocationsReported;
+
+        synchronized void record(long nanos, boolean error) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            if (error) {
+                errors.incrementAndGet();
+            }
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+
+        synchronized void resetMetrics() {
+            metricInvocations = 0;
+            gcCount = 0;
+            gcMillis = 0;
+            allocatedBytes = 0;
+        }
+
+        synchronized void addMetrics(String record) {
+            Matcher matcher = METRIC.matcher(record);
+            long invocations = 0;
+            long averageBytes = -1;
+            while (matcher.find()) {
+                long value = Long.parseLong(matcher.group(2));
+                switch (matcher.group(1)) {
+                    case "Invocation.count":
+                        invocations = value;
+                        break;
+                    case "Invocation.gcCount":
+                        gcCount += value;
+                        break;
+                    case "Invocation.gcTime":
+                        gcMillis += value;
+                        break;
+                    default:
+                        averageBytes = value;
+                }
+            }
+            metricInvocations += invocations;
+            if (averageBytes >= 0) {
+                allocationsReported = true;
+                allocatedBytes += averageBytes * invocations;
+            }
+        }
+
+        synchronized long allocatedBytesPerInvocation() {
+            return metricInvocations == 0 ? 0 : allocatedBytes / metricInvocations;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.ata.aws.lambda.tools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in for the Lambda Runtime API, good enough to run {@code LambdaBootstrap} outside of AWS. Events are
+ * queued with {@link #invoke(byte[])} and handed out on {@code /invocation/next}; the runtime's responses and errors
+ * complete the future returned for each event.
+ *
+ * It also stands in for the Extensions and Telemetry APIs: an extension can register, and a telemetry subscriber is
+ * sent a {@code platform.report} for each invocation once its response is in, with the host of its URI replaced by
+ * the loopback address.
+ */
+public final class LocalRuntimeApi implements Closeable {
+
+    private static final String BASE_PATH = "/2018-06-01/runtime/";
+    private static final String EXTENSION_PATH = "/2020-01-01/extension/";
+    private static final String TELEMETRY_PATH = "/2022-07-01/telemetry";
+    private static final Pattern DESTINATION = Pattern.compile("\"URI\"\\s*:\\s*\"http://[^:/\"]+(:\\d+)?([^\"]*)\"");
+    private static final int MEMORY_SIZE_MB = 1024;
+    private static final String FUNCTION_ARN = "arn:aws:lambda:us-east-1:000000000000:function:local";
+
+    static {
+        // Without TCP_NODELAY small responses wait for delayed ACKs, which would dwarf the runtime's own latency
+        System.getProperties().putIfAbsent("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "local-runtime-api");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final BlockingQueue<Invocation> pending = new LinkedBlockingQueue<>();
+    private final Map<String, Invocation> inFlight = new ConcurrentHashMap<>();
+    private final CompletableFuture<Result> initError = new CompletableFuture<>();
+    private volatile long timeoutMillis = 900_000;
+    private volatile URL telemetryDestination;
+    private final long startedAt = System.nanoTime();
+    private volatile long firstNextAt;
+
+    public LocalRuntimeApi() throws IOException {
+        this(0);
+    }
+
+    public LocalRuntimeApi(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 64);
+        server.setExecutor(executor);
+        server.createContext(BASE_PATH, this::handle);
+        server.createContext(EXTENSION_PATH, this::handleExtension);
+        server.createContext(TELEMETRY_PATH, this::handleTelemetry);
+        server.start();
+    }
+
+    /**
+     * The value to put into {@code AWS_LAMBDA_RUNTIME_API} for a runtime talking to this stand-in.
+     */
+    public String getAddress() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Sets the function timeout used to compute the deadline sent with each event.
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Queues an event. The returned future completes once the runtime posted a response or an error for it.
+     */
+    public CompletableFuture<Result> invoke(byte[] event) {
+        Invocation invocation = new Invocation(UUID.randomUUID().toString(), event);
+        pending.add(invocation);
+        return invocation.result;
+    }
+
+    /**
+     * Completes if the runtime reports an initialization error.
+     */
+    public CompletableFuture<Result> getInitError() {
+        return initError;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+            byte[] body = exchange.getRequestBody().readAllBytes();
+
+            if (path.equals("invocation/next")) {
+                next(exchange);
+            }
+            else if (path.equals("init/error")) {
+                initError.complete(new Result(true, exchange.getRequestHeaders().getFirst("Lambda-Runtime-Function-Error-Type"), body));
+                accepted(exchange);
+            }
+            else if (path.startsWith("invocation/")) {
+                int slash = path.lastIndexOf('/');
+                Invocation invocation = inFlight.remove(path.substring("invocation/".length(), slash));
+                String kind = path.substring(slash + 1);
+
+                if (invocation == null || !(kind.equals("response") || kind.equals("error"))) {
+                    send(exchange, 400, "{\"errorMessage\":\"Invalid request ID\",\"errorType\":\"InvalidRequestID\"}");
+                    return;
+                }
+
+                boolean error = kind.equals("error");
+                String errorType = exchange.getRequestHeaders().getFirst("Lambda-Runtime-Function-Error-Type");
+                invocation.result.complete(new Result(error, errorType, body));
+                accepted(exchange);
+                report(invocation, error);
+            }
+            else {
+                send(exchange, 404, "{\"errorMessage\":\"Not found\"}");
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private void next(HttpExchange exchange) throws IOException {
+        Invocation invocation;
+        try {
+            invocation = pending.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        invocation.startedAt = System.nanoTime();
+        if (firstNextAt == 0) {
+            firstNextAt = invocation.startedAt;
+            invocation.first = true;
+        }
+        inFlight.put(invocation.requestId, invocation);
+
+        exchange.getResponseHeaders().add("Lambda-Runtime-Aws-Request-Id", invocation.requestId);
+        exchange.getResponseHeaders().add("Lambda-Runtime-Deadline-Ms", Long.toString(System.currentTimeMillis() + timeoutMillis));
+        exchange.getResponseHeaders().add("Lambda-Runtime-Invoked-Function-Arn", FUNCTION_ARN);
+        exchange.getResponseHeaders().add("Lambda-Runtime-Trace-Id", "Root=1-00000000-000000000000000000000000;Sampled=0");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        if (invocation.event.length == 0) {
+            // Leave the body of an empty event alone, the server resets the keep-alive connection otherwise
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, invocation.event.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(invocation.event);
+        }
+    }
+
+    private void handleExtension(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath().substring(EXTENSION_PATH.length());
+            exchange.getRequestBody().readAllBytes();
+
+            if (path.equals("register")) {
+                exchange.getResponseHeaders().add("Lambda-Extension-Identifier", UUID.randomUUID().toString());
+                send(exchange, 200, "{\"functionName\":\"local\",\"functionVersion\":\"$LATEST\",\"handler\":\"local\"}");
+            }
+            else if (path.equals("event/next")) {
+                // Internal extensions aren't sent any events, the request is only answered once the stand-in closes
+                try {
+                    new CountDownLatch(1).await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            else {
+                send(exchange, 404, "{\"errorMessage\":\"Not found\"}");
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private void handleTelemetry(HttpExchange exchange) throws IOException {
+        try {
+            String subscription = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            Matcher destination = DESTINATION.matcher(subscription);
+            if (!exchange.getRequestMethod().equals("PUT") || !destination.find()) {
+                send(exchange, 400, "{\"errorMessage\":\"Invalid subscription\",\"errorType\":\"ValidationError\"}");
+                return;
+            }
+            String port = destination.group(1) == null ? "" : destination.group(1);
+            telemetryDestination = new URL("http://127.0.0.1" + port + destination.group(2));
+            send(exchange, 200, "\"OK\"");
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends the subscriber, if there is one, the {@code platform.report} of an invocation. The first report carries
+     * the time from starting the stand-in to the first event request as its init duration.
+     */
+    private void report(Invocation invocation, boolean error) {
+        URL destination = telemetryDestination;
+        if (destination == null) {
+            return;
+        }
+        double durationMs = (System.nanoTime() - invocation.startedAt) / 1e6;
+        String initDuration = invocation.first ? ",\"initDurationMs\":" + (firstNextAt - startedAt) / 1e6 : "";
+        String batch = "[{\"time\":\"" + Instant.now() + "\",\"type\":\"platform.report\",\"record\":{"
+                + "\"requestId\":\"" + invocation.requestId + "\",\"status\":\"" + (error ? "error" : "success") + "\","
+                + "\"metrics\":{\"durationMs\":" + durationMs + ",\"billedDurationMs\":" + (long) Math.ceil(durationMs)
+                + ",\"memorySizeMB\":" + MEMORY_SIZE_MB + ",\"maxMemoryUsedMB\":" + usedMemoryMB() + initDuration + "}}}]";
+
+        executor.execute(() -> {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) destination.openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(batch.getBytes(StandardCharsets.UTF_8));
+                }
+                connection.getInputStream().readAllBytes();
+            }
+            catch (IOException e) {
+                // The subscriber may have gone away with the runtime
+            }
+        });
+    }
+
+    /**
+     * Memory in use by this process, the closest a local stand-in gets to the memory used by the environment.
+     */
+    private static long usedMemoryMB() {
+        Runtime runtime = Runtime.getRuntime();
+        return (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+    }
+
+    private static void accepted(HttpExchange exchange) throws IOException {
+        send(exchange, 202, "{\"status\":\"OK\"}");
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static final class Invocation {
+        private final String requestId;
+        private final byte[] event;
+        private final CompletableFuture<Result> result = new CompletableFuture<>();
+        private long startedAt;
+        private boolean first;
+
+        private Invocation(String requestId, byte[] event) {
+            this.requestId = requestId;
+            this.event = event;
+        }
+    }
+
+    /**
+     * What the runtime posted back for an event.
+     */
+    public static final class Result {
+        private final boolean error;
+        private final String errorType;
+        private final byte[] body;
+
+        Result(boolean error, String errorType, byte[] body) {
+            this.error = error;
+            this.errorType = errorType;
+            this.body = body;
+        }
+
+        public boolean isError() {
+            return error;
+        }
+
+        public String getErrorType() {
+            return errorType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "error=" + error +
+                    ", errorType='" + errorType + '\'' +
+                    ", body='" + new String(body, StandardCharsets.UTF_8) + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.ata.aws.lambda.tools;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.spi.ToolProvider;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Computes the JDK modules a runtime image needs for the runtime and a handler deployment by running {@code jdeps}
+ * over the runtime's jar, the deployment's classes and the jars in its {@code lib} directory. Handler classes are
+ * loaded from the class path, so they can only use modules that were linked into the image.
+ *
+ * Usage: ModuleDeps &lt;output file&gt; &lt;runtime jar&gt; [task root]
+ */
+public final class ModuleDeps {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ModuleDeps <output file> <runtime jar> [task root]");
+            System.exit(2);
+        }
+
+        Path output = Paths.get(args[0]);
+        List<String> modules = compute(Paths.get(args[1]), args.length > 2 ? Paths.get(args[2]) : null);
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        Files.write(output, String.join(",", modules).getBytes());
+        System.out.println("JDK modules needed: " + String.join(",", modules));
+    }
+
+    /**
+     * Returns the JDK modules needed by the runtime jar and, if given, the handler deployment, sorted by name.
+     */
+    public static List<String> compute(Path runtimeJar, Path taskRoot) throws IOException {
+        TreeSet<String> modules = new TreeSet<>(jdeps(runtimeJar.toString()));
+        if (taskRoot != null) {
+            List<String> paths = new ArrayList<>();
+            paths.add(taskRoot.toString());
+            Path lib = taskRoot.resolve("lib");
+            if (Files.isDirectory(lib)) {
+                try (Stream<Path> jars = Files.list(lib)) {
+                    paths.addAll(jars.filter(jar -> jar.toString().endsWith(".jar")).map(Path::toString).sorted().collect(Collectors.toList()));
+                }
+            }
+            modules.addAll(jdeps(paths.toArray(new String[0])));
+        }
+        return new ArrayList<>(modules);
+    }
+
+    private static List<String> jdeps(String... paths) throws IOException {
+        ToolProvider jdeps = ToolProvider.findFirst("jdeps")
+                .orElseThrow(() -> new IOException("jdeps isn't available, run with a JDK"));
+
+        List<String> args = new ArrayList<>(Arrays.asList("--print-module-deps", "--ignore-missing-deps",
+                "--multi-release", Integer.toString(Runtime.version().feature())));
+        args.addAll(Arrays.asList(paths));
+
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+        int status = jdeps.run(new PrintWriter(out), new PrintWriter(err), args.toArray(new String[0]));
+        if (status != 0) {
+            throw new IOException("jdeps failed for " + String.join(" ", paths) + ": " + err + out);
+        }
+
+        // The module list is the last line, warnings about split packages and the like come before it
+        String[] lines = out.toString().trim().split("\\R");
+        String last = lines[lines.length - 1].trim();
+        return last.isEmpty() ? new ArrayList<>() : Arrays.asList(last.split(","));
+    }
+}
@@ -0,0 +1,39 @@
+package com.ata.aws.lambda.tools;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Records the preload list of a handler deployment by running training invocations of the runtime against a local
+ * Runtime API. The runtime writes the classes its handler class loader defined, in the order they were needed, to
+ * {@code lambda-preload.lst} in the task root, which has to be writable for that.
+ *
+ * Usage: PreloadTraining &lt;image dir&gt; &lt;task root&gt; &lt;handler&gt; [event file] [invocations]
+ */
+public final class PreloadTraining {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: PreloadTraining <image dir> <task root> <handler> [event file] [invocations]");
+            System.exit(2);
+        }
+
+        Path taskRoot = Paths.get(args[1]).toAbsolutePath();
+        Path list = taskRoot.resolve("lambda-preload.lst");
+        TrainingRun training = new TrainingRun(Paths.get(args[0]), taskRoot, args[2]);
+        if (args.length > 3 && !args[3].isEmpty()) {
+            training.event(Files.readAllBytes(Paths.get(args[3])));
+        }
+        if (args.length > 4) {
+            training.invocations(Integer.parseInt(args[4]));
+        }
+
+        // A stale list would be preloaded by the training run itself
+        Files.deleteIfExists(list);
+        training.env("LAMBDA_RUNTIME_RECORD_PRELOAD", "true").run();
+
+        int classes = Files.exists(list) ? Files.readAllLines(list).size() : 0;
+        System.out.println("Recorded " + classes + " classes to preload in " + list);
+    }
+}
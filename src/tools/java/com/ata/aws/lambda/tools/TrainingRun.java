@@ -0,0 +1,125 @@
+package com.ata.aws.lambda.tools;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the runtime from a linked image against a {@link LocalRuntimeApi} for a fixed number of invocations and waits
+ * for it to exit. Build steps that need to observe a realistic run of the runtime, like dumping a class data sharing
+ * archive, are driven through this.
+ */
+public final class TrainingRun {
+
+    public static final String MAIN_MODULE = "com.ata.lambda/com.ata.aws.lambda.LambdaBootstrap";
+
+    private final Path imageDir;
+    private final Path taskRoot;
+    private final String handler;
+    private final List<String> jvmOptions = new ArrayList<>();
+    private final Map<String, String> environment = new LinkedHashMap<>();
+    private byte[] event = "{\"message\":\"Hello World\"}".getBytes(StandardCharsets.UTF_8);
+    private int invocations = 10;
+    private long timeoutSeconds = 120;
+    private volatile long firstResponseNanos;
+
+    public TrainingRun(Path imageDir, Path taskRoot, String handler) {
+        this.imageDir = imageDir;
+        this.taskRoot = taskRoot;
+        this.handler = handler;
+    }
+
+    public TrainingRun event(byte[] event) {
+        this.event = event;
+        return this;
+    }
+
+    public TrainingRun invocations(int invocations) {
+        this.invocations = invocations;
+        return this;
+    }
+
+    public TrainingRun jvmOption(String option) {
+        this.jvmOptions.add(option);
+        return this;
+    }
+
+    public TrainingRun env(String name, String value) {
+        this.environment.put(name, value);
+        return this;
+    }
+
+    public TrainingRun timeoutSeconds(long timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+        return this;
+    }
+
+    /**
+     * How long it took from starting the runtime's process to the response to the first event of the last run.
+     */
+    public long getFirstResponseNanos() {
+        return firstResponseNanos;
+    }
+
+    public Path getJava() {
+        return imageDir.resolve("bin").resolve("java");
+    }
+
+    /**
+     * Starts the runtime, feeds it the configured number of events and waits for it to exit on its own.
+     */
+    public void run() throws Exception {
+        try (LocalRuntimeApi api = new LocalRuntimeApi()) {
+            List<String> command = new ArrayList<>();
+            command.add(getJava().toString());
+            command.addAll(jvmOptions);
+            command.add("-m");
+            command.add(MAIN_MODULE);
+
+            ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+            builder.environment().put("AWS_LAMBDA_RUNTIME_API", api.getAddress());
+            builder.environment().put("LAMBDA_TASK_ROOT", taskRoot.toAbsolutePath().toString());
+            builder.environment().put("_HANDLER", handler);
+            builder.environment().put("LAMBDA_RUNTIME_TRAINING_INVOCATIONS", Integer.toString(invocations));
+            builder.environment().putAll(environment);
+
+            long start = System.nanoTime();
+            Process process = builder.start();
+
+            List<CompletableFuture<LocalRuntimeApi.Result>> results = new ArrayList<>();
+            for (int i = 0; i < invocations; i++) {
+                results.add(api.invoke(event));
+            }
+            results.get(0).thenRun(() -> firstResponseNanos = System.nanoTime() - start);
+
+            CompletableFuture<?> done = CompletableFuture.anyOf(
+                    CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])),
+                    api.getInitError(),
+                    process.onExit());
+            done.get(timeoutSeconds, TimeUnit.SECONDS);
+
+            if (api.getInitError().isDone()) {
+                process.destroy();
+                throw new IOException("Runtime failed to initialize: " + api.getInitError().get());
+            }
+            if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("Runtime did not exit after " + invocations + " invocations");
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("Runtime exited with " + process.exitValue());
+            }
+            for (CompletableFuture<LocalRuntimeApi.Result> result : results) {
+                if (!result.isDone() || result.get().isError()) {
+                    throw new IOException("Training invocation failed: " + (result.isDone() ? result.get() : "no response"));
+                }
+            }
+        }
+    }
+}